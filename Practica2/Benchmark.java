@@ -0,0 +1,573 @@
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks del protocolo de ventana deslizante de Practica2.
+ *
+ * Uso: java [-Dbench.*] Benchmark [codec|servidor|extremo|esperas|enlace|todo]
+ *
+ *   codec     codificar/decodificar tramas (binario contra el texto anterior)
+ *   servidor  procesamiento del servidor en orden, fuera de orden y en lotes
+ *   extremo   throughput y latencia Cliente -> Servidor por loopback, con
+ *             perdida y desorden inyectados por un relay UDP
+ *   esperas   bench.esperas llamadores bloqueados a la vez en enviarYEsperar,
+ *             cada uno en su hilo (virtual con Java 21)
+ *   enlace    Cliente y Servidor sobre EnlaceEmulado con varios perfiles de
+ *             red; comprueba que cada comando se ejecuta una sola vez y en
+ *             orden y se confirma una sola vez, y mide el goodput
+ *
+ * Propiedades: bench.calentamiento, bench.iteraciones, bench.duracion (ms),
+ * bench.comandos, bench.esperas, bench.enlace.comandos, bench.perdida (0..1),
+ * bench.desorden (0..1), bench.semilla.
+ * Sin bench.perdida/bench.desorden se recorren tres perfiles de red.
+ *
+ * No hay JMH en el repositorio: se sigue su metodologia (iteraciones de
+ * calentamiento, iteraciones medidas y un sumidero para que el JIT no
+ * elimine el trabajo) con un arnes propio. Tampoco hay pruebas unitarias: las
+ * comprobaciones del modo enlace terminan con codigo de salida 1 si fallan.
+ */
+public class Benchmark {
+    private static final int CALENTAMIENTO = Integer.getInteger("bench.calentamiento", 3);
+    private static final int ITERACIONES = Integer.getInteger("bench.iteraciones", 5);
+    private static final long DURACION_MS = Long.getLong("bench.duracion", 1000);
+    private static final int COMANDOS = Integer.getInteger("bench.comandos", 20000);
+    private static final int ESPERAS = Integer.getInteger("bench.esperas", 5000);
+    private static final int COMANDOS_ENLACE = Integer.getInteger("bench.enlace.comandos", 2000);
+    private static final long SEMILLA = Long.getLong("bench.semilla", 42);
+    private static final String[] CICLO = {"PLAY", "PAUSE", "RESTART", "STOP"};
+
+    // Sumidero: evita que el JIT descarte resultados no usados
+    private static volatile long sumidero;
+    private static int fallos = 0;
+
+    interface Operacion {
+        long ejecutar();
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Antes de cargar Servidor/Cliente: sin trazas y cola suficiente para la carga
+        System.setProperty("servidor.traza", "false");
+        System.setProperty("cliente.log.nivel", "WARN");
+        System.setProperty("cliente.cola.max", String.valueOf(Math.max(COMANDOS, ESPERAS) + 16));
+
+        String modo = args.length > 0 ? args[0] : "todo";
+        if (modo.equals("codec") || modo.equals("todo")) codec();
+        if (modo.equals("servidor") || modo.equals("todo")) servidor();
+        if (modo.equals("extremo") || modo.equals("todo")) extremo();
+        if (modo.equals("esperas") || modo.equals("todo")) esperas();
+        if (modo.equals("enlace") || modo.equals("todo")) enlace();
+        System.exit(fallos == 0 ? 0 : 1);
+    }
+
+    // ---------------------------------------------------------------- codec
+
+    private static void codec() {
+        System.out.println("== Codec ==");
+
+        final int[] seq = {0};
+        medir("codec.texto.codificar", () -> {
+            String data = seq[0]++ + ":" + 41 + ":" + "RESTART";
+            return data.getBytes().length;
+        });
+
+        final byte[] texto = "12345:12344:RESTART".getBytes();
+        medir("codec.texto.decodificar", () -> {
+            String[] partes = new String(texto).trim().split(":", 3);
+            return Integer.parseInt(partes[0]) + Integer.parseInt(partes[1]) + partes[2].length();
+        });
+
+        final ByteBuffer buffer = ByteBuffer.allocate(Protocolo.MAX_DATAGRAMA);
+        medir("codec.binario.codificar", () -> {
+            buffer.clear();
+            Protocolo.codificar(buffer, seq[0]++, 41, Protocolo.OP_RESTART);
+            return buffer.position();
+        });
+
+        final ByteBuffer trama = ByteBuffer.allocate(Protocolo.MAX_DATAGRAMA);
+        Protocolo.codificar(trama, 12345, 12344, Protocolo.OP_RESTART);
+        final int longitud = trama.position();
+        final Protocolo.Trama destino = new Protocolo.Trama();
+        medir("codec.binario.decodificar", () -> {
+            trama.limit(longitud).position(0);
+            Protocolo.decodificar(trama, destino);
+            return destino.getSequenceNumber() + destino.getOpcode();
+        });
+
+        medir("codec.binario.lote8.codificar", () -> {
+            buffer.clear();
+            Protocolo.iniciarLote(buffer, 41);
+            for (int i = 0; i < 8; i++) {
+                Protocolo.agregarAlLote(buffer, 0, seq[0]++, Protocolo.OP_PLAY, null, 0, 0);
+            }
+            return buffer.position();
+        });
+    }
+
+    // ------------------------------------------------------------- servidor
+
+    private static void servidor() {
+        System.out.println("== Servidor ==");
+        final SocketAddress cliente = new InetSocketAddress(InetAddress.getLoopbackAddress(), 40000);
+
+        final Servidor enOrden = new Servidor(true);
+        final ByteBuffer datagrama = ByteBuffer.allocate(Protocolo.MAX_DATAGRAMA);
+        Protocolo.codificar(datagrama, 0, -1, Protocolo.OP_PLAY);
+        final int longitud = datagrama.position();
+        final int[] seq = {0};
+        medir("servidor.procesar.enOrden", () -> {
+            datagrama.putInt(4, seq[0]++);
+            datagrama.limit(longitud).position(0);
+            enOrden.recibido(datagrama, cliente);
+            return seq[0];
+        });
+
+        // Pares invertidos: seq+1 se guarda en la ventana y seq la vacia. El CONNECT
+        // (seq 0) abre la sesion antes: sin ella el servidor no aceptaria seq 1
+        final Servidor desorden = new Servidor(true);
+        final int[] ejecucion = {-1, 0};     // ultima seq ejecutada, ejecuciones fuera de orden
+        desorden.setObservador((c, s) -> {
+            if (s != ejecucion[0] + 1) {
+                ejecucion[1]++;
+            }
+            ejecucion[0] = s;
+        });
+        ByteBuffer conexion = ByteBuffer.allocate(Protocolo.MAX_DATAGRAMA);
+        Protocolo.codificar(conexion, 0, -1, Protocolo.OP_CONNECT);
+        conexion.flip();
+        desorden.recibido(conexion, cliente);
+        final int[] base = {1};
+        medir("servidor.procesar.desorden", () -> {
+            datagrama.putInt(4, base[0] + 1);
+            datagrama.limit(longitud).position(0);
+            desorden.recibido(datagrama, cliente);
+            datagrama.putInt(4, base[0]);
+            datagrama.limit(longitud).position(0);
+            desorden.recibido(datagrama, cliente);
+            base[0] += 2;
+            return base[0];
+        });
+        if (ejecucion[1] != 0 || ejecucion[0] != base[0] - 1) {
+            fallos++;
+            System.out.printf("  FALLO: desorden ejecuto hasta seq %d de %d, %d fuera de orden%n",
+                ejecucion[0], base[0] - 1, ejecucion[1]);
+        }
+
+        final Servidor lotes = new Servidor(true);
+        final ByteBuffer lote = ByteBuffer.allocate(Protocolo.MAX_DATAGRAMA);
+        final int[] siguiente = {0};
+        medir("servidor.procesar.lote8", () -> {
+            lote.clear();
+            Protocolo.iniciarLote(lote, -1);
+            for (int i = 0; i < 8; i++) {
+                Protocolo.agregarAlLote(lote, 0, siguiente[0]++, Protocolo.OP_PLAY, null, 0, 0);
+            }
+            lote.flip();
+            lotes.recibido(lote, cliente);
+            return siguiente[0];
+        });
+    }
+
+    // ------------------------------------------------------ extremo a extremo
+
+    private static void extremo() throws Exception {
+        System.out.println("== Extremo a extremo (" + COMANDOS + " comandos) ==");
+        iniciarServidor();
+
+        if (System.getProperty("bench.perdida") != null || System.getProperty("bench.desorden") != null) {
+            extremo(Double.parseDouble(System.getProperty("bench.perdida", "0")),
+                    Double.parseDouble(System.getProperty("bench.desorden", "0")));
+        } else {
+            extremo(0, 0);
+            extremo(0.01, 0.05);
+            extremo(0.05, 0.10);
+        }
+    }
+
+    private static void extremo(double perdida, double desorden) throws Exception {
+        InetAddress loopback = InetAddress.getByName("::1");
+        Relay relay = new Relay(new InetSocketAddress(loopback, 7777), perdida, desorden, SEMILLA);
+        relay.iniciar();
+
+        final long[] latencias = new long[COMANDOS];
+        final AtomicInteger confirmados = new AtomicInteger();
+
+        Cliente cliente = new Cliente(loopback, relay.puerto());
+        long inicio;
+        long fin;
+        boolean completo;
+        try {
+            cliente.setObservador((seq, latencia, reenvios) -> {
+                // seq 0 es el CONNECT de apertura de sesion
+                if (seq > 0) {
+                    int i = confirmados.getAndIncrement();
+                    if (i < latencias.length) latencias[i] = latencia;
+                }
+            });
+            while (!cliente.todoConfirmado()) {
+                Thread.sleep(1);
+            }
+
+            inicio = System.nanoTime();
+            for (int i = 0; i < COMANDOS; i++) {
+                cliente.enviarComando(CICLO[i % CICLO.length]);
+            }
+            long limite = inicio + 120_000_000_000L;
+            while (!cliente.todoConfirmado() && System.nanoTime() < limite) {
+                Thread.sleep(1);
+            }
+            fin = System.nanoTime();
+            completo = cliente.todoConfirmado();
+        } finally {
+            cliente.cerrar();
+            relay.cerrar();
+        }
+
+        int n = Math.min(confirmados.get(), latencias.length);
+        long[] ordenadas = Arrays.copyOf(latencias, n);
+        Arrays.sort(ordenadas);
+        double segundos = (fin - inicio) / 1e9;
+        System.out.printf("perdida=%.0f%% desorden=%.0f%%: %s%d comandos en %.2f s -> %.0f comandos/s | "
+                + "latencia p50=%.2f p90=%.2f p99=%.2f max=%.2f ms | reenvios=%d%n",
+            perdida * 100, desorden * 100, completo ? "" : "INCOMPLETO ", n, segundos, n / segundos,
+            percentil(ordenadas, 0.50), percentil(ordenadas, 0.90), percentil(ordenadas, 0.99),
+            n == 0 ? 0 : ordenadas[n - 1] / 1e6, cliente.getReenvios());
+    }
+
+    private static boolean servidorIniciado = false;
+
+    private static void iniciarServidor() throws InterruptedException {
+        if (servidorIniciado) {
+            return;
+        }
+        servidorIniciado = true;
+        Thread hiloServidor = new Thread(Servidor::new, "servidor-bench");
+        hiloServidor.setDaemon(true);
+        hiloServidor.start();
+        Thread.sleep(500);
+    }
+
+    // ------------------------------------------------------------- esperas
+
+    private static void esperas() throws Exception {
+        System.out.println("== Esperas sincronas (" + ESPERAS + " llamadores en hilos "
+            + (Hilos.virtualesDisponibles() ? "virtuales" : "de plataforma, sin Java 21") + ") ==");
+        iniciarServidor();
+
+        double perdida = Double.parseDouble(System.getProperty("bench.perdida", "0.01"));
+        double desorden = Double.parseDouble(System.getProperty("bench.desorden", "0.05"));
+        InetAddress loopback = InetAddress.getByName("::1");
+        Relay relay = new Relay(new InetSocketAddress(loopback, 7777), perdida, desorden, SEMILLA);
+        relay.iniciar();
+
+        final long[] latencias = new long[ESPERAS];
+        final AtomicInteger respondidos = new AtomicInteger();
+        Cliente cliente = new Cliente(loopback, relay.puerto());
+        ExecutorService hilos = Hilos.porTarea("bench-espera", true);
+        long inicio;
+        boolean completo;
+        try {
+            while (!cliente.todoConfirmado()) {
+                Thread.sleep(1);
+            }
+            inicio = System.nanoTime();
+            for (int i = 0; i < ESPERAS; i++) {
+                String comando = CICLO[i % CICLO.length];
+                hilos.execute(() -> {
+                    long t0 = System.nanoTime();
+                    try {
+                        if (cliente.enviarYEsperar(comando, 60, TimeUnit.SECONDS) != null) {
+                            latencias[respondidos.getAndIncrement()] = System.nanoTime() - t0;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            hilos.shutdown();
+            completo = hilos.awaitTermination(120, TimeUnit.SECONDS);
+        } finally {
+            cliente.cerrar();
+            relay.cerrar();
+        }
+        long fin = System.nanoTime();
+
+        int n = respondidos.get();
+        long[] ordenadas = Arrays.copyOf(latencias, n);
+        Arrays.sort(ordenadas);
+        double segundos = (fin - inicio) / 1e9;
+        System.out.printf("perdida=%.0f%% desorden=%.0f%%: %s%d/%d respuestas en %.2f s -> %.0f comandos/s | "
+                + "espera p50=%.2f p90=%.2f p99=%.2f max=%.2f ms | reenvios=%d%n",
+            perdida * 100, desorden * 100, completo && n == ESPERAS ? "" : "INCOMPLETO ", n, ESPERAS, segundos,
+            n / segundos, percentil(ordenadas, 0.50), percentil(ordenadas, 0.90), percentil(ordenadas, 0.99),
+            n == 0 ? 0 : ordenadas[n - 1] / 1e6, cliente.getReenvios());
+    }
+
+    // -------------------------------------------------------------- enlace
+
+    private static void enlace() throws Exception {
+        System.out.println("== Enlace emulado (" + COMANDOS_ENLACE + " comandos por perfil) ==");
+        EnlaceEmulado.Distribucion normal = EnlaceEmulado.Distribucion.NORMAL;
+        EnlaceEmulado.Distribucion pareto = EnlaceEmulado.Distribucion.PARETO;
+        EnlaceEmulado.Perfil[] perfiles = {
+            new EnlaceEmulado.Perfil("ideal"),
+            new EnlaceEmulado.Perfil("perdida").perdida(0.05),
+            new EnlaceEmulado.Perfil("retardo").retardo(20, 10, normal),
+            new EnlaceEmulado.Perfil("cola-pesada").retardo(5, 20, pareto),
+            new EnlaceEmulado.Perfil("duplicados").duplicacion(0.10),
+            new EnlaceEmulado.Perfil("desorden").desorden(0.10).retardo(1, 2, EnlaceEmulado.Distribucion.UNIFORME),
+            new EnlaceEmulado.Perfil("1-mbit").anchoDeBanda(1_000_000).retardo(10, 0, normal),
+            new EnlaceEmulado.Perfil("combinado").perdida(0.03).retardo(10, 10, pareto)
+                .duplicacion(0.02).desorden(0.05).anchoDeBanda(2_000_000),
+        };
+        for (EnlaceEmulado.Perfil perfil : perfiles) {
+            enlace(perfil);
+        }
+    }
+
+    // Mismo perfil en los dos sentidos; el servidor anota el orden en que ejecuta
+    // y el cliente cuantas veces se confirma cada comando
+    private static void enlace(EnlaceEmulado.Perfil perfil) throws Exception {
+        EnlaceEmulado enlace = new EnlaceEmulado(perfil, perfil, SEMILLA);
+        final int total = COMANDOS_ENLACE + 1;       // mas el CONNECT (seq 0)
+        final int[] ejecuciones = new int[total];
+        final int[] confirmaciones = new int[total];
+        final int[] fueraDeOrden = {0};
+        final int[] siguiente = {0};
+
+        Thread hiloServidor = new Thread(() -> new Servidor(enlace.servidor(), (cliente, seq) -> {
+            synchronized (ejecuciones) {
+                if (seq != siguiente[0]) {
+                    fueraDeOrden[0]++;
+                }
+                siguiente[0] = seq + 1;
+                if (seq >= 0 && seq < total) {
+                    ejecuciones[seq]++;
+                }
+            }
+        }), "servidor-enlace");
+        hiloServidor.setDaemon(true);
+        hiloServidor.start();
+
+        Cliente cliente = new Cliente(enlace.cliente(), enlace.direccionServidor());
+        cliente.setObservador((seq, latencia, reenvios) -> {
+            synchronized (confirmaciones) {
+                if (seq >= 0 && seq < total) {
+                    confirmaciones[seq]++;
+                }
+            }
+        });
+        long inicio = System.nanoTime();
+        boolean completo;
+        try {
+            for (int i = 0; i < COMANDOS_ENLACE; i++) {
+                cliente.enviarComando(CICLO[i % CICLO.length]);
+            }
+            long limite = inicio + 120_000_000_000L;
+            while (!cliente.todoConfirmado() && System.nanoTime() < limite) {
+                Thread.sleep(1);
+            }
+            completo = cliente.todoConfirmado();
+        } finally {
+            cliente.cerrar();
+        }
+        long fin = System.nanoTime();
+        // Los ultimos ACK pueden seguir en el enlace, pero la ejecucion ya termino
+        Thread.sleep(50);
+        enlace.cerrar();
+        hiloServidor.join(1000);
+
+        int noEjecutados = 0, repetidos = 0, sinConfirmar = 0, confirmadosDeMas = 0;
+        synchronized (ejecuciones) {
+            for (int seq = 0; seq < total; seq++) {
+                if (ejecuciones[seq] == 0) noEjecutados++;
+                if (ejecuciones[seq] > 1) repetidos++;
+            }
+        }
+        synchronized (confirmaciones) {
+            // El CONNECT se confirma antes de instalar el observador
+            for (int seq = 1; seq < total; seq++) {
+                if (confirmaciones[seq] == 0) sinConfirmar++;
+                if (confirmaciones[seq] > 1) confirmadosDeMas++;
+            }
+        }
+        // Sin perdidas no hay nada que reenviar; si el retardo no esta acotado un atasco puede
+        // vencer el RTO, pero el servidor contesta DUPLICADO y cada reenvio debe reconocerse espurio
+        int reenvios = cliente.getReenvios();
+        int espurios = cliente.getReenviosEspurios();
+        boolean reenviosCorrectos = !perfil.sinPerdida()
+            || (perfil.retardoAcotado() ? reenvios == 0 : reenvios == espurios);
+        boolean correcto;
+        synchronized (ejecuciones) {
+            correcto = completo && noEjecutados == 0 && repetidos == 0 && fueraDeOrden[0] == 0
+                && sinConfirmar == 0 && confirmadosDeMas == 0 && reenviosCorrectos;
+        }
+        if (!correcto) {
+            fallos++;
+        }
+
+        double segundos = (fin - inicio) / 1e9;
+        System.out.println(perfil);
+        System.out.printf("  %s: %d comandos en %.2f s -> goodput %.0f comandos/s | reenvios=%d (espurios %d)%n",
+            correcto ? "OK" : "FALLO", COMANDOS_ENLACE, segundos, COMANDOS_ENLACE / segundos, reenvios, espurios);
+        if (!correcto) {
+            System.out.printf("  sin ejecutar=%d ejecutados de mas=%d fuera de orden=%d sin confirmar=%d "
+                    + "confirmados de mas=%d%s%n", noEjecutados, repetidos, fueraDeOrden[0], sinConfirmar,
+                confirmadosDeMas, completo ? "" : " (vencio el plazo)");
+            if (!reenviosCorrectos) {
+                System.out.printf("  reenvios innecesarios en un enlace sin perdidas: %d%n", reenvios - espurios);
+            }
+        }
+        System.out.println("  " + enlace.resumen());
+    }
+
+    private static double percentil(long[] ordenadas, double p) {
+        if (ordenadas.length == 0) return 0;
+        return ordenadas[Math.min(ordenadas.length - 1, (int) (p * ordenadas.length))] / 1e6;
+    }
+
+    /**
+     * Relay UDP entre cliente y servidor que descarta y desordena datagramas
+     * en ambos sentidos. Un datagrama retenido para desordenar sale detras del
+     * siguiente, o a los 5 ms si no llega ninguno.
+     */
+    private static final class Relay {
+        private final DatagramSocket ladoCliente;
+        private final DatagramSocket ladoServidor;
+        private final SocketAddress servidor;
+        private final double perdida;
+        private final double desorden;
+        private final SplittableRandom aleatorio;
+        private volatile SocketAddress cliente;
+        private volatile boolean activo = true;
+
+        Relay(SocketAddress servidor, double perdida, double desorden, long semilla) throws Exception {
+            this.servidor = servidor;
+            this.perdida = perdida;
+            this.desorden = desorden;
+            this.aleatorio = new SplittableRandom(semilla);
+            this.ladoCliente = new DatagramSocket(new InetSocketAddress(InetAddress.getByName("::1"), 0));
+            this.ladoServidor = new DatagramSocket();
+            this.ladoCliente.setSoTimeout(5);
+            this.ladoServidor.setSoTimeout(5);
+        }
+
+        int puerto() {
+            return ladoCliente.getLocalPort();
+        }
+
+        void iniciar() {
+            Thread subida = new Thread(() -> reenviar(ladoCliente, ladoServidor, true), "relay-subida");
+            Thread bajada = new Thread(() -> reenviar(ladoServidor, ladoCliente, false), "relay-bajada");
+            subida.setDaemon(true);
+            bajada.setDaemon(true);
+            subida.start();
+            bajada.start();
+        }
+
+        void cerrar() {
+            activo = false;
+            ladoCliente.close();
+            ladoServidor.close();
+        }
+
+        private void reenviar(DatagramSocket origen, DatagramSocket destino, boolean haciaServidor) {
+            byte[] buffer = new byte[Protocolo.MAX_DATAGRAMA];
+            DatagramPacket entrada = new DatagramPacket(buffer, buffer.length);
+            byte[] retenido = null;
+            while (activo) {
+                try {
+                    entrada.setLength(buffer.length);
+                    try {
+                        origen.receive(entrada);
+                    } catch (SocketTimeoutException e) {
+                        if (retenido != null) {
+                            enviar(destino, retenido, haciaServidor);
+                            retenido = null;
+                        }
+                        continue;
+                    }
+                    if (haciaServidor) {
+                        cliente = entrada.getSocketAddress();
+                    }
+                    if (azar() < perdida) {
+                        continue;
+                    }
+                    byte[] copia = Arrays.copyOf(buffer, entrada.getLength());
+                    if (retenido == null && azar() < desorden) {
+                        retenido = copia;
+                        continue;
+                    }
+                    enviar(destino, copia, haciaServidor);
+                    if (retenido != null) {
+                        enviar(destino, retenido, haciaServidor);
+                        retenido = null;
+                    }
+                } catch (Exception e) {
+                    if (activo) System.err.println("Relay: " + e.getMessage());
+                }
+            }
+        }
+
+        private double azar() {
+            synchronized (aleatorio) {
+                return aleatorio.nextDouble();
+            }
+        }
+
+        private void enviar(DatagramSocket socket, byte[] datos, boolean haciaServidor) throws Exception {
+            SocketAddress destino = haciaServidor ? servidor : cliente;
+            if (destino != null) {
+                socket.send(new DatagramPacket(datos, datos.length, destino));
+            }
+        }
+    }
+
+    // --------------------------------------------------------------- arnes
+
+    private static void medir(String nombre, Operacion op) {
+        for (int i = 0; i < CALENTAMIENTO; i++) {
+            iteracion(op);
+        }
+        double[] resultados = new double[ITERACIONES];
+        for (int i = 0; i < ITERACIONES; i++) {
+            resultados[i] = iteracion(op);
+        }
+
+        double media = 0;
+        for (double r : resultados) media += r;
+        media /= resultados.length;
+        double varianza = 0;
+        for (double r : resultados) varianza += (r - media) * (r - media);
+        double desviacion = resultados.length > 1 ? Math.sqrt(varianza / (resultados.length - 1)) : 0;
+
+        System.out.printf("%-34s %10.1f ± %6.1f ns/op  (%,.0f ops/s)%n", nombre, media, desviacion, 1e9 / media);
+    }
+
+    // Devuelve ns/op de una iteracion de DURACION_MS
+    private static double iteracion(Operacion op) {
+        long operaciones = 0;
+        long acumulado = 0;
+        long inicio = System.nanoTime();
+        long limite = inicio + DURACION_MS * 1_000_000L;
+        long ahora;
+        do {
+            for (int i = 0; i < 1024; i++) {
+                acumulado += op.ejecutar();
+            }
+            operaciones += 1024;
+            ahora = System.nanoTime();
+        } while (ahora < limite);
+        sumidero += acumulado;
+        return (double) (ahora - inicio) / operaciones;
+    }
+}
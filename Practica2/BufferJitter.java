@@ -0,0 +1,215 @@
+/**
+ * Buffer de jitter adaptativo para el flujo de audio.
+ *
+ * Los paquetes se guardan en la ranura seq % capacidad (memoria fija) y se
+ * entregan en orden de secuencia. La reproduccion empieza, y se reanuda tras
+ * quedarse sin datos, cuando hay tantos paquetes como la profundidad
+ * objetivo. Esa profundidad sigue al jitter medido como en RTP (RFC 3550):
+ *
+ *   D = (llegada_j - llegada_i) - (marca_j - marca_i) / tasa
+ *   J = J + (|D| - J) / 16
+ *   objetivo = 1 + ceil(4 J / duracion de un paquete), acotado a [min, max]
+ *
+ * Si al llegar su turno falta un paquete pero ya llegaron otros posteriores,
+ * se da por perdido (PERDIDO) y el llamador lo oculta. Si se acumulan muchos
+ * mas paquetes que el objetivo se descarta el mas antiguo para no arrastrar
+ * latencia, salvo con latencia fija: entonces la marca el instante de
+ * presentacion de cada paquete, que presentacion() devuelve tras siguiente().
+ */
+public final class BufferJitter {
+    /** siguiente(): el paquete que tocaba no llego y hay que ocultarlo. */
+    public static final int PERDIDO = -1;
+
+    private final int capacidad;
+    private final int profundidadMinima;
+    private final int profundidadMaxima;
+    private final byte[][] datos;
+    private final int[] longitudes;
+    private final boolean[] presentes;
+    private final long[] presentaciones;
+    private int ocupados = 0;
+
+    private boolean vacio = true;
+    private boolean reproduciendo = false;
+    private int siguienteSeq;
+    private boolean latenciaFija = false;
+    private long presentacion = 0;      // del ultimo paquete entregado (0 = desconocida)
+
+    // Estimacion de jitter, en nanosegundos
+    private boolean hayAnterior = false;
+    private int seqAnterior;
+    private long transitoAnterior;
+    private int marcaAnterior;
+    private double jitter = 0;
+    private double duracionPaquete = 20_000_000;
+
+    // Contadores
+    private long recibidos = 0;
+    private long perdidos = 0;
+    private long tardios = 0;
+    private long recortados = 0;
+    private long subrecargas = 0;
+
+    public BufferJitter(int capacidad, int profundidadMinima, int profundidadMaxima) {
+        this.capacidad = capacidad;
+        this.profundidadMinima = Math.max(1, profundidadMinima);
+        this.profundidadMaxima = Math.min(capacidad / 2, Math.max(this.profundidadMinima, profundidadMaxima));
+        this.datos = new byte[capacidad][Protocolo.MAX_PAYLOAD];
+        this.longitudes = new int[capacidad];
+        this.presentes = new boolean[capacidad];
+        this.presentaciones = new long[capacidad];
+    }
+
+    /** Guarda un paquete; devuelve false si llego tarde o es un duplicado. */
+    public synchronized boolean guardar(int seq, int marca, int tasa, long presentacion,
+                                        byte[] origen, int offset, int longitud, long llegadaNanos) {
+        recibidos++;
+        if (vacio || seq - siguienteSeq >= capacidad || seq - siguienteSeq <= -capacidad) {
+            // Primer paquete o salto grande (el flujo empezo de nuevo): se vuelve a sincronizar
+            vaciar();
+            vacio = false;
+            siguienteSeq = seq;
+        }
+        if (seq - siguienteSeq < 0) {
+            tardios++;
+            return false;
+        }
+
+        estimarJitter(seq, marca, tasa, llegadaNanos);
+
+        int ranura = Integer.remainderUnsigned(seq, capacidad);
+        if (presentes[ranura]) {
+            return false;
+        }
+        int n = Math.min(longitud, Protocolo.MAX_PAYLOAD);
+        System.arraycopy(origen, offset, datos[ranura], 0, n);
+        longitudes[ranura] = n;
+        presentaciones[ranura] = presentacion;
+        presentes[ranura] = true;
+        ocupados++;
+        notifyAll();
+        return true;
+    }
+
+    private void estimarJitter(int seq, int marca, int tasa, long llegadaNanos) {
+        long transito = llegadaNanos - (long) (marca * 1e9 / tasa);
+        if (hayAnterior && seq - seqAnterior > 0) {
+            double d = Math.abs(transito - transitoAnterior);
+            jitter += (d - jitter) / 16;
+            double duracion = (marca - marcaAnterior) * 1e9 / tasa / (seq - seqAnterior);
+            if (duracion > 0) {
+                duracionPaquete += (duracion - duracionPaquete) / 8;
+            }
+        }
+        if (!hayAnterior || seq - seqAnterior > 0) {
+            hayAnterior = true;
+            seqAnterior = seq;
+            transitoAnterior = transito;
+            marcaAnterior = marca;
+        }
+    }
+
+    /**
+     * Copia en destino el siguiente paquete a reproducir y devuelve su
+     * longitud, PERDIDO si hay que ocultarlo, o 0 si no hubo nada que
+     * reproducir en esperaNanos (llenando el buffer o sin flujo).
+     */
+    public synchronized int siguiente(byte[] destino, long esperaNanos) throws InterruptedException {
+        long limite = System.nanoTime() + esperaNanos;
+        while (!reproduciendo) {
+            if (!vacio && ocupados >= objetivo()) {
+                reproduciendo = true;
+                break;
+            }
+            long restante = limite - System.nanoTime();
+            if (restante <= 0) {
+                return 0;
+            }
+            wait(Math.max(1, restante / 1_000_000));
+        }
+
+        if (ocupados == 0) {
+            // Sin datos: se vuelve a llenar hasta el objetivo antes de seguir. Si
+            // el flujo estaba en pausa el siguiente transito no es comparable.
+            reproduciendo = false;
+            hayAnterior = false;
+            subrecargas++;
+            return 0;
+        }
+
+        if (!latenciaFija && ocupados > 2 * objetivo() + 2) {
+            // Demasiada latencia acumulada: se salta el paquete mas antiguo
+            descartar(siguienteSeq);
+            siguienteSeq++;
+            recortados++;
+        }
+
+        int ranura = Integer.remainderUnsigned(siguienteSeq, capacidad);
+        siguienteSeq++;
+        if (!presentes[ranura]) {
+            perdidos++;
+            if (presentacion != 0) {
+                presentacion += (long) duracionPaquete;
+            }
+            return PERDIDO;
+        }
+        int n = longitudes[ranura];
+        presentacion = presentaciones[ranura];
+        System.arraycopy(datos[ranura], 0, destino, 0, n);
+        presentes[ranura] = false;
+        ocupados--;
+        return n;
+    }
+
+    private void descartar(int seq) {
+        int ranura = Integer.remainderUnsigned(seq, capacidad);
+        if (presentes[ranura]) {
+            presentes[ranura] = false;
+            ocupados--;
+        }
+    }
+
+    // Profundidad objetivo en paquetes segun el jitter observado
+    public synchronized int objetivo() {
+        int paquetes = 1 + (int) Math.ceil(4 * jitter / duracionPaquete);
+        return Math.max(profundidadMinima, Math.min(profundidadMaxima, paquetes));
+    }
+
+    public synchronized void vaciar() {
+        for (int i = 0; i < capacidad; i++) {
+            presentes[i] = false;
+        }
+        ocupados = 0;
+        vacio = true;
+        reproduciendo = false;
+        hayAnterior = false;
+        presentacion = 0;
+    }
+
+    /** Con latencia fija no se recorta: el llamador reproduce cada paquete en su instante. */
+    public synchronized void setLatenciaFija(boolean latenciaFija) {
+        this.latenciaFija = latenciaFija;
+    }
+
+    // Instante de presentacion (reloj del servidor) del ultimo paquete que dio siguiente()
+    public synchronized long presentacion() {
+        return presentacion;
+    }
+
+    public synchronized long duracionPaqueteNanos() {
+        return (long) duracionPaquete;
+    }
+
+    public synchronized int ocupados() {
+        return ocupados;
+    }
+
+    public synchronized double jitterMs() {
+        return jitter / 1e6;
+    }
+
+    public synchronized String resumen() {
+        return String.format("jitter: %.2f ms | profundidad: %d/%d | recibidos: %d | perdidos: %d | tardios: %d | recortados: %d | subrecargas: %d",
+            jitter / 1e6, ocupados, objetivo(), recibidos, perdidos, tardios, recortados, subrecargas);
+    }
+}
@@ -1,87 +1,277 @@
 import java.io.File;
-import java.net.DatagramPacket;
+import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
 
 public class Cliente {
-    private DatagramSocket socket;
+    // -Dcliente.log.nivel=INFO oculta los envios por paquete; -Dcliente.log.destino=<ruta> los lleva a un archivo
+    private static final Registro REGISTRO = Registro.para("cliente", Registro.Nivel.DEBUG);
+    private static final Registro.Nivel DEBUG = Registro.Nivel.DEBUG;
+    private static final Registro.Nivel INFO = Registro.Nivel.INFO;
+
+    // -Dcliente.audio=flujo reproduce el flujo multicast del servidor; =local carga Prueba.wav en un Clip
+    private static final boolean AUDIO_LOCAL = "local".equals(System.getProperty("cliente.audio", "flujo"));
+    // -Dcliente.audio.puerto y profundidad del buffer de jitter en paquetes (-Dcliente.jitter.min / .max)
+    private static final int PUERTO_AUDIO = Integer.getInteger("cliente.audio.puerto", 7778);
+    private static final int JITTER_MIN = Integer.getInteger("cliente.jitter.min", 1);
+    private static final int JITTER_MAX = Integer.getInteger("cliente.jitter.max", 25);
+    // -Dcliente.reloj.ms: cada cuanto se mide el desfase con el reloj del servidor
+    private static final long RELOJ_MS = Long.getLong("cliente.reloj.ms", 2000);
+    private static final int MEDIDAS_INICIALES = 4;   // seguidas al arrancar, cada 100 ms
+    // Lo que devuelve enviarYEsperar si el comando se confirmo sin su respuesta
+    static final String SIN_RESPUESTA = "SIN RESPUESTA";
+    private static final int PAUSA_SACK = 4;          // RTOs sin reenviar un comando confirmado por SACK
+    // Desorden que se tolera antes de dar por perdido un comando (-Dcliente.reorden.ms)
+    private static final long REORDEN_MIN_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("cliente.reorden.ms", 10));
+    private static final int RECUPERACIONES_REORDEN = 16;  // sin reenvios espurios, el margen vuelve al minimo
+    private static final int REENVIOS_RECORDADOS = 1024;   // potencia de 2: seqs reenviadas que se recuerdan
+    // -Dcliente.hilos.virtuales=true: hilo receptor virtual (Java 21+); ver enviarYEsperar
+    private static final boolean HILOS_VIRTUALES = Boolean.getBoolean("cliente.hilos.virtuales");
+
+    private Transporte transporte;
     private InetAddress multicastGroup;
+    private SocketAddress servidor;
     private Clip audioClip;
     private boolean isPlaying = false;
+    private ReceptorAudio receptorAudio;
+    private final RelojMedios reloj = new RelojMedios();
+    private final ByteBuffer bufferReloj = ByteBuffer.allocate(Protocolo.CABECERA + Protocolo.LONGITUD_RELOJ);
+    private int medidasReloj = 0;       // solo el hilo de la rueda
+
+    private static class ComandoPendiente {
+        private final String comando;
+        private final byte[] datos;
+        private final CompletableFuture<String> espera;   // null si nadie espera la respuesta
+        private final long encoladoNanos = System.nanoTime();
+        
+        ComandoPendiente(String comando, byte[] datos, CompletableFuture<String> espera) {
+            this.comando = comando;
+            this.datos = datos;
+            this.espera = espera;
+        }
+    }
+    
+    /** Recibe cada comando confirmado con su latencia desde que se encolo. */
+    interface ObservadorConfirmaciones {
+        void confirmado(int seq, long latenciaNanos, int reenvios);
+    }
 
     public static class Mensaje {
         private int sequenceNumber;
         private int ackNumber;
         private String comando;
+        private byte[] datos;
+        private long sack;
+        private Map<Integer, String> respuestasLote;   // ACK de un lote: respuesta de cada seq
         private long timestamp;
+        private long enviadoNanos;
+        private long encoladoNanos;
+        private int reenvios = 0;
+        private RuedaTemporizadores.Temporizador temporizador;
+        private volatile boolean enBufferServidor = false;   // el servidor lo tiene en su buffer: reenvio en pausa
+        private CompletableFuture<String> espera;
         
         public Mensaje(int seq, int ack, String cmd) {
+            this(seq, ack, cmd, null);
+        }
+        
+        public Mensaje(int seq, int ack, String cmd, byte[] datos) {
             this.sequenceNumber = seq;
             this.ackNumber = ack;
             this.comando = cmd;
+            this.datos = datos;
             this.timestamp = System.currentTimeMillis();
+            this.enviadoNanos = System.nanoTime();
+            this.encoladoNanos = enviadoNanos;
         }
         
         public int getSequenceNumber() { return sequenceNumber; }
         public int getAckNumber() { return ackNumber; }
         public String getComando() { return comando; }
+        public byte[] getDatos() { return datos; }
+        public long getSack() { return sack; }
         public long getTimestamp() { return timestamp; }
         public void updateTimestamp() { this.timestamp = System.currentTimeMillis(); }
+        public long getEnviadoNanos() { return enviadoNanos; }
+        public int getReenvios() { return reenvios; }
+        
+        // Marca un reenvio: por la regla de Karn su ACK ya no sirve como muestra de RTT
+        public void marcarReenvio() {
+            reenvios++;
+            updateTimestamp();
+            enviadoNanos = System.nanoTime();
+        }
         
         public byte[] toBytes() {
-            String data = sequenceNumber + ":" + ackNumber + ":" + comando;
-            return data.getBytes();
+            ByteBuffer buffer = ByteBuffer.allocate(Protocolo.MAX_DATAGRAMA);
+            codificarEn(buffer);
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+        
+        // Codifica el mensaje en un buffer reutilizable del llamador
+        public void codificarEn(ByteBuffer destino) {
+            byte opcode = Protocolo.opcodeDe(comando);
+            if (datos != null) {
+                Protocolo.codificar(destino, sequenceNumber, ackNumber, opcode, datos, 0, datos.length);
+            } else if (opcode == Protocolo.OP_TEXTO) {
+                byte[] texto = comando.getBytes(StandardCharsets.UTF_8);
+                Protocolo.codificar(destino, sequenceNumber, ackNumber, opcode, texto, 0,
+                    Math.min(texto.length, Protocolo.MAX_PAYLOAD));
+            } else {
+                Protocolo.codificar(destino, sequenceNumber, ackNumber, opcode);
+            }
         }
         
         public static Mensaje fromBytes(byte[] data) {
-            try {
-                String str = new String(data).trim();
-                String[] parts = str.split(":", 3);
-                if (parts.length == 3) {
-                    return new Mensaje(
-                        Integer.parseInt(parts[0]),
-                        Integer.parseInt(parts[1]),
-                        parts[2]
-                    );
-                }
-            } catch (Exception e) {
-                System.err.println("Error parseando mensaje: " + new String(data));
+            Protocolo.Trama trama = new Protocolo.Trama();
+            if (Protocolo.decodificar(ByteBuffer.wrap(data), trama)) {
+                return fromTrama(trama);
             }
+            REGISTRO.registrar(Registro.Nivel.WARN, "Error parseando mensaje de {} bytes", data.length);
             return null;
         }
+        
+        public static Mensaje fromTrama(Protocolo.Trama trama) {
+            String cmd;
+            Map<Integer, String> respuestas = null;
+            switch (trama.getOpcode()) {
+                case Protocolo.OP_ACK:
+                    if ((trama.getFlags() & Protocolo.FLAG_LOTE) != 0) {
+                        respuestas = respuestasLote(trama);
+                        cmd = "ACK:" + String.join("\n", respuestas.values());
+                    } else {
+                        cmd = "ACK:" + trama.payloadComoTexto();
+                    }
+                    break;
+                case Protocolo.OP_TEXTO:
+                    cmd = trama.payloadComoTexto();
+                    break;
+                default:
+                    cmd = Protocolo.nombre(trama.getOpcode());
+            }
+            Mensaje mensaje = new Mensaje(trama.getSequenceNumber(), trama.getAckNumber(), cmd);
+            mensaje.sack = trama.getSack();
+            mensaje.respuestasLote = respuestas;
+            return mensaje;
+        }
+        
+        private static Map<Integer, String> respuestasLote(Protocolo.Trama trama) {
+            Map<Integer, String> respuestas = new LinkedHashMap<>();
+            byte[] p = trama.getPayload();
+            int i = 0;
+            while (i + Protocolo.CABECERA_RESPUESTA <= trama.getLongitud()) {
+                int seq = Protocolo.entero(p, i);
+                int longitud = Protocolo.corto(p, i + 4);
+                i += Protocolo.CABECERA_RESPUESTA;
+                if (i + longitud > trama.getLongitud()) {
+                    break;
+                }
+                respuestas.put(seq, new String(p, i, longitud, StandardCharsets.UTF_8));
+                i += longitud;
+            }
+            return respuestas;
+        }
     }
     
-    private int nextSeqNumber = 0;
-    private int windowSize = 6;
+    private volatile int nextSeqNumber = 0;
+    // -Dcliente.ventana.max limita la ventana; la ventana real la decide el control de congestion
+    private final int windowSize = Integer.getInteger("cliente.ventana.max", 64);
+    private final ControlCongestion congestion = new ControlCongestion(
+        Integer.getInteger("cliente.ventana.inicial", 2), 1, windowSize);
+    
+    // Comandos a la espera de hueco en la ventana, en orden de llegada
+    private static final int MAX_COLA = Integer.getInteger("cliente.cola.max", 1024);
+    private final ArrayDeque<ComandoPendiente> colaPendientes = new ArrayDeque<>();
+    private final Object envioLock = new Object();
+    
+    // -Dcliente.lote=true agrupa en un datagrama los comandos encolados en -Dcliente.lote.ms
+    private static final boolean LOTES = Boolean.getBoolean("cliente.lote");
+    private static final long LOTE_MS = Long.getLong("cliente.lote.ms", 2);
+    private static final int LOTE_MAX_COMANDOS = Integer.getInteger("cliente.lote.max", 32);
+    private final ByteBuffer bufferLote = ByteBuffer.allocate(Protocolo.MAX_DATAGRAMA);
+    private boolean descargaProgramada = false;
+    private volatile int ventanaServidor = Integer.MAX_VALUE; // anunciada en cada ACK
     private Map<Integer, Mensaje> sentMessages = new ConcurrentHashMap<>();
-    private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-    private int lastAckReceived = -1;
+    // Un temporizador por secuencia pendiente, resolucion de 1 ms
+    private final RuedaTemporizadores rueda = new RuedaTemporizadores(1, TimeUnit.MILLISECONDS, 1024, "retransmisiones");
+    private volatile int lastAckReceived = -1;
+    private volatile int mayorRecibida = -1;   // mayor seq que el servidor confirmo tener (ACK o SACK)
     private int reenvios = 0;
+    private int reenviosEspurios = 0;          // de ellos, los que no se habian perdido
+    // Copias reenviadas de cada seq (por seq modulo REENVIOS_RECORDADOS) aun sin respuesta DUPLICADO
+    private final int[] seqReenviada = new int[REENVIOS_RECORDADOS];
+    private final int[] copiasReenviadas = new int[REENVIOS_RECORDADOS];
+    // Perdidas por SACK (RACK): envio mas reciente que se sabe entregado y su RTT
+    private final Object rack = new Object();
+    private long rackEnviado = 0;
+    private long rackRtt = 0;
+    private int reordenMult = 1;               // crece con cada reenvio espurio
+    private int recuperacionesRack = 0;
+    private RuedaTemporizadores.Temporizador temporizadorRack;
+    
+    // RTO adaptativo: -Dcliente.rto.inicial / .min / .max en milisegundos
+    private final EstimadorRTT estimadorRTT = new EstimadorRTT(
+        Long.getLong("cliente.rto.inicial", 1000),
+        Long.getLong("cliente.rto.min", 200),
+        Long.getLong("cliente.rto.max", 60000));
+    
+    // Ultima respuesta del servidor
+    private volatile String ultimaRespuesta = "";
+    
+    private volatile ObservadorConfirmaciones observador;
     
-    // Buffer para respuestas del servidor
-    private final Object responseLock = new Object();
-    private String ultimaRespuesta = "";
+    // Metricas; con -Dcliente.metricas.puerto=N se sirven en http://localhost:N/metricas
+    private final Metricas metricas = new Metricas("cliente");
+    private final Metricas.Contador comandosEnviados =
+        metricas.contador("comandos_enviados", "Comandos enviados por primera vez");
+    private final Metricas.Contador paquetesRecibidos =
+        metricas.contador("paquetes_recibidos", "Datagramas recibidos del servidor");
+    private final Metricas.Histograma rttAck =
+        metricas.histograma("rtt_ack_us", "RTT de los ACK de comandos no reenviados, en microsegundos");
+    private final Metricas.Histograma latenciaConfirmacion =
+        metricas.histograma("confirmacion_us", "Desde que se encola un comando hasta su confirmacion, en microsegundos");
+    private final Metricas.Histograma reenviosPorComando =
+        metricas.histograma("reenvios_por_comando", "Reenvios que necesito cada comando confirmado");
+    private final Metricas.Histograma ocupacionVentana =
+        metricas.histograma("ventana_ocupacion", "Comandos en vuelo al enviar uno nuevo");
     
     public Cliente() {
         try {
-            socket = new DatagramSocket();
+            transporte = Transporte.de(new DatagramSocket());
             multicastGroup = InetAddress.getByName("ff3e:40:2001::1");
+            servidor = new InetSocketAddress(multicastGroup, 7777);
             
             System.out.println("Cliente de Audio iniciado...");
-            System.out.println("Tamaño de ventana: " + windowSize);
+            System.out.println("Tamaño de ventana: " + congestion.ventana() + " (maximo " + windowSize + ")");
             
-            cargarAudioLocal();
+            if (AUDIO_LOCAL) {
+                cargarAudioLocal();
+            } else {
+                iniciarFlujo();
+            }
+            registrarMetricas();
+            metricas.publicar();
             startClient();
             
         } catch (Exception e) {
@@ -89,6 +279,33 @@ public class Cliente {
         }
     }
     
+    // Estado de la ventana, leido al exportar
+    private void registrarMetricas() {
+        metricas.contador("reenvios", "Reenvios por vencimiento del RTO", () -> reenvios);
+        metricas.contador("reenvios_espurios", "Reenvios por RTO de comandos que no se habian perdido",
+            () -> reenviosEspurios);
+        metricas.medidor("en_vuelo", "Comandos enviados sin confirmar", this::enVuelo);
+        metricas.medidor("ventana", "Ventana efectiva: congestion, maximo local y la anunciada por el servidor",
+            this::ventanaEfectiva);
+        metricas.medidor("cola", "Comandos esperando hueco en la ventana", () -> {
+            synchronized (envioLock) {
+                return colaPendientes.size();
+            }
+        });
+        metricas.medidor("rto_us", "Timeout de retransmision actual, en microsegundos",
+            () -> estimadorRTT.rtoNanos() / 1000);
+    }
+    
+    // Reproduce el flujo del servidor con memoria constante, sin cargar el archivo entero
+    private void iniciarFlujo() {
+        try {
+            receptorAudio = new ReceptorAudio(multicastGroup, PUERTO_AUDIO, null, 128, JITTER_MIN, JITTER_MAX, reloj);
+            System.out.println("Escuchando flujo de audio en [" + multicastGroup.getHostAddress() + "]:" + PUERTO_AUDIO);
+        } catch (Exception e) {
+            System.err.println("Error escuchando el flujo de audio: " + e.getMessage());
+        }
+    }
+    
     private void cargarAudioLocal() {
         try {
             File audioFile = new File("Prueba.wav");
@@ -108,15 +325,175 @@ public class Cliente {
         }
     }
     
+    // Cliente sin consola ni audio local, para pruebas y benchmarks
+    Cliente(InetAddress servidor, int puerto) throws Exception {
+        this(Transporte.de(new DatagramSocket()), new InetSocketAddress(servidor, puerto));
+    }
+    
+    // Igual, sobre un transporte dado (EnlaceEmulado en las pruebas de red)
+    Cliente(Transporte transporte, SocketAddress servidor) {
+        this.transporte = transporte;
+        this.servidor = servidor;
+        registrarMetricas();
+        Hilos.iniciar("cliente-respuestas", HILOS_VIRTUALES, this::recibirRespuestas);
+        conectar();
+    }
+    
+    void enviarComando(String comando) {
+        enviarComandoConVentana(comando.toUpperCase());
+    }
+    
+    /**
+     * Envia el comando y bloquea al llamador hasta que el servidor lo confirma.
+     * Devuelve la respuesta del servidor, SIN_RESPUESTA si se confirmo sin su
+     * ACK propio (de forma acumulativa porque ese ACK se perdio, o en un lote
+     * cuya respuesta no cupo en el datagrama) o null si vence el plazo o la cola esta
+     * llena. Al vencer el plazo el comando no se cancela: sigue reenviandose
+     * como cualquier otro.
+     *
+     * Cada llamada solo cuesta un CompletableFuture; con hilos virtuales se
+     * pueden tener miles de llamadores esperando a la vez, y la ventana y la
+     * cola (-Dcliente.cola.max) deciden cuantos comandos hay en vuelo.
+     */
+    String enviarYEsperar(String comando, long plazo, TimeUnit unidad) throws InterruptedException {
+        CompletableFuture<String> espera = new CompletableFuture<>();
+        if (!encolar(comando.toUpperCase(), null, espera)) {
+            return null;
+        }
+        try {
+            return espera.get(plazo, unidad);
+        } catch (TimeoutException | ExecutionException e) {
+            return null;
+        }
+    }
+    
+    void setObservador(ObservadorConfirmaciones observador) {
+        this.observador = observador;
+    }
+    
+    boolean todoConfirmado() {
+        synchronized (envioLock) {
+            return colaPendientes.isEmpty() && sentMessages.isEmpty();
+        }
+    }
+    
+    int getReenvios() {
+        return reenvios;
+    }
+
+    int getReenviosEspurios() {
+        return reenviosEspurios;
+    }
+    
+    void cerrar() {
+        rueda.detener();
+        transporte.close();
+    }
+    
     private void startClient() {
-        new Thread(this::recibirRespuestas).start();
-        new Thread(this::verificarTimeouts).start();
+        if (HILOS_VIRTUALES && !Hilos.virtualesDisponibles()) {
+            System.out.println("Hilos virtuales no disponibles (requieren Java 21), se usan hilos de plataforma");
+        }
+        Hilos.iniciar("cliente-respuestas", HILOS_VIRTUALES, this::recibirRespuestas);
+        conectar();
+        if (receptorAudio != null) {
+            medirReloj();
+        }
         enviarComandos();
     }
+    
+    // Abre la sesion en el servidor anunciando la ventana, una epoca aleatoria y
+    // los codecs de audio que sabe decodificar
+    private void conectar() {
+        enviarComandoConVentana("CONNECT", datosConexion());
+    }
+    
+    private byte[] datosConexion() {
+        ByteBuffer datos = ByteBuffer.allocate(7);
+        datos.putShort((short) windowSize);
+        datos.putInt(new java.util.Random().nextInt());
+        datos.put((byte) CodecAudio.TODOS);
+        return datos.array();
+    }
+    
+    /**
+     * El servidor ya no tiene la sesion (expiro por inactividad): se abre otra
+     * con una epoca nueva y los comandos sin confirmar vuelven a la cabeza de la
+     * cola, en orden, para salir renumerados detras del CONNECT. Mientras el
+     * CONNECT (seq 0) no este confirmado la respuesta no dice nada: el servidor
+     * aun no lo ha visto (llego otro comando antes) y el reenvio lo resuelve;
+     * asi tampoco se reconecta dos veces por los comandos que ya iban en vuelo.
+     */
+    private void reconectar(int seq) {
+        synchronized (envioLock) {
+            if (sentMessages.containsKey(0)) {
+                return;
+            }
+            List<Mensaje> pendientes = new ArrayList<>(sentMessages.values());
+            pendientes.sort(Comparator.comparingInt(Mensaje::getSequenceNumber));
+            sentMessages.clear();
+            for (int i = pendientes.size() - 1; i >= 0; i--) {
+                Mensaje m = pendientes.get(i);
+                if (m.temporizador != null) {
+                    m.temporizador.cancelar();
+                }
+                if (!"CONNECT".equals(m.getComando())) {
+                    colaPendientes.addFirst(new ComandoPendiente(m.comando, m.datos, m.espera));
+                }
+            }
+            colaPendientes.addFirst(new ComandoPendiente("CONNECT", datosConexion(), null));
+            nextSeqNumber = 0;
+            lastAckReceived = -1;
+            mayorRecibida = -1;
+            synchronized (seqReenviada) {
+                Arrays.fill(copiasReenviadas, 0);
+            }
+            synchronized (rack) {
+                rackEnviado = 0;
+            }
+            congestion.nuevaSesion();
+            REGISTRO.registrar(INFO, "Sesion desconocida en el servidor [Seq:{}], reconectando con {} comandos pendientes",
+                seq, colaPendientes.size() - 1);
+            despacharPendientes();
+        }
+    }
+    
+    // Intercambio OP_RELOJ fuera de la ventana: se pierde sin reenvio y se repite
+    // periodicamente; el filtro de RelojMedios se queda con la mejor muestra
+    private void medirReloj() {
+        try {
+            bufferReloj.clear();
+            Protocolo.codificarReloj(bufferReloj, RelojMedios.ahora(), 0, 0);
+            enviarDatagrama(bufferReloj.array(), bufferReloj.position());
+        } catch (Exception e) {
+            if (transporte.abierto()) {
+                REGISTRO.error("Error midiendo el reloj: " + e.getMessage());
+            }
+        }
+        if (transporte.abierto()) {
+            long espera = ++medidasReloj < MEDIDAS_INICIALES ? 100 : RELOJ_MS;
+            rueda.programar(espera, TimeUnit.MILLISECONDS, this::medirReloj);
+        }
+    }
+    
+    private int ventanaEfectiva() {
+        if (lastAckReceived < 0) {
+            // Hasta que se confirme el CONNECT el servidor no tiene sesion donde guardar
+            // los demas: los rechazaria y habria que reenviarlos
+            return 1;
+        }
+        return Math.min(congestion.ventana(), Math.min(windowSize, ventanaServidor));
+    }
+    
+    // Secuencias enviadas y aun no confirmadas de forma acumulativa; los comandos
+    // confirmados por SACK siguen ocupando ventana hasta que el servidor avance
+    private int enVuelo() {
+        return nextSeqNumber - 1 - lastAckReceived;
+    }
 
     private void demostrarVentanaDeslizante() {
     System.out.println("\n=== DEMOSTRACION VENTANA DESLIZANTE ===");
-    System.out.println("Tamaño de ventana: " + windowSize);
+    System.out.println("Tamaño de ventana: " + ventanaEfectiva() + " (" + congestion.resumen() + ")");
     
     String[] comandos = {"PLAY", "PAUSE", "RESTART", "STATUS", "PAUSE", "RESTART"};
     
@@ -135,8 +512,8 @@ public class Cliente {
 
     private void enviarComandoRapido(String comando) {
         // Versión simplificada que solo envía, no ejecuta localmente
-        if (sentMessages.size() >= windowSize) {
-            System.out.println("VENTANA LLENA - No se puede enviar: " + comando);
+        if (enVuelo() >= ventanaEfectiva()) {
+            REGISTRO.registrar(INFO, "VENTANA LLENA - No se puede enviar: {}", comando);
             return;
         }
         
@@ -144,124 +521,453 @@ public class Cliente {
         Mensaje mensaje = new Mensaje(currentSeq, lastAckReceived, comando);
         
         try {
-            byte[] datos = mensaje.toBytes();
-            DatagramPacket packet = new DatagramPacket(datos, datos.length, multicastGroup, 7777);
-            socket.send(packet);
-            
+            // Se registra antes de enviar para que un ACK rapido no llegue antes que el registro
             sentMessages.put(currentSeq, mensaje);
-            System.out.println("Enviado: " + comando + " [Seq:" + currentSeq + ", Ventana:" + sentMessages.size() + "/" + windowSize + "]");
+            programarTimeout(mensaje);
+            
+            byte[] datos = mensaje.toBytes();
+            enviarDatagrama(datos, datos.length);
+            REGISTRO.registrar(DEBUG, "Enviado: {} [Seq:{}, Ventana:{}]", comando, currentSeq, enVuelo() + "/" + ventanaEfectiva());
             
         } catch (Exception e) {
-            System.err.println("Error enviando comando: " + e.getMessage());
+            REGISTRO.error("Error enviando comando: " + e.getMessage());
         }
     }
     
     private void recibirRespuestas() {
         try {
-            byte[] buffer = new byte[1024];
+            byte[] buffer = new byte[Protocolo.MAX_DATAGRAMA];
+            ByteBuffer vista = ByteBuffer.wrap(buffer);
+            Protocolo.Trama trama = new Protocolo.Trama();
             
             while (true) {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                socket.receive(packet);
+                vista.clear();
+                transporte.recibir(vista);
+                long llegada = RelojMedios.ahora();
+                paquetesRecibidos.incrementar();
                 
-                Mensaje respuesta = Mensaje.fromBytes(Arrays.copyOf(packet.getData(), packet.getLength()));
-                if (respuesta != null) {
-                    procesarACK(respuesta);
+                vista.flip();
+                if (!Protocolo.decodificar(vista, trama)) {
+                    continue;
+                }
+                if (trama.getOpcode() == Protocolo.OP_RELOJ) {
+                    if (trama.getLongitud() >= Protocolo.LONGITUD_RELOJ) {
+                        byte[] p = trama.getPayload();
+                        reloj.muestra(Protocolo.largo(p, 0), Protocolo.largo(p, 8), Protocolo.largo(p, 16), llegada);
+                    }
+                } else if ((trama.getFlags() & Protocolo.FLAG_SESION) != 0) {
+                    reconectar(trama.getAckNumber());
+                } else {
+                    procesarACK(Mensaje.fromTrama(trama));
                 }
             }
         } catch (Exception e) {
-            System.err.println("Error recibiendo respuestas: " + e.getMessage());
+            if (transporte.abierto()) {
+                REGISTRO.error("Error recibiendo respuestas: " + e.getMessage());
+            }
         }
     }
     
     private void procesarACK(Mensaje ack) {
         int ackNumber = ack.getAckNumber();
         
-        synchronized (responseLock) {
-            System.out.println("\n=== RESPUESTA DEL SERVIDOR ===");
-            
-            if (ackNumber > lastAckReceived) {
-                lastAckReceived = ackNumber;
+        int ackAnterior = lastAckReceived;
+        if (ack.getSequenceNumber() > 0) {
+            ventanaServidor = ack.getSequenceNumber();
+        }
+        
+        // Muestra de RTT solo si el comando confirmado no se reenvio (Karn)
+        Mensaje confirmado = sentMessages.get(ackNumber);
+        if (confirmado != null && confirmado.getReenvios() == 0 && !confirmado.enBufferServidor) {
+            long rtt = System.nanoTime() - confirmado.getEnviadoNanos();
+            estimadorRTT.muestra(rtt);
+            rttAck.registrar(rtt / 1000);
+        }
+        
+        // La respuesta del ACK es la del comando ackNumber, salvo BUFFERED y DUPLICADO,
+        // que son del protocolo; los demas se confirman sin texto propio. El ACK de
+        // un lote trae la respuesta de cada comando con su seq
+        String textoServidor = ack.getComando().startsWith("ACK:") ? ack.getComando().substring(4) : ack.getComando();
+        String respuesta = textoServidor;
+        if (respuesta.equals("DUPLICADO")) {
+            reenvioEspurio(ackNumber);
+        }
+        if (respuesta.isEmpty() || respuesta.equals("BUFFERED") || respuesta.equals("DUPLICADO")) {
+            respuesta = SIN_RESPUESTA;
+        }
+        
+        // Solo se recorren las secuencias recien confirmadas, no todo el mapa
+        int hasta = Math.min(ackNumber, nextSeqNumber - 1);
+        long ahora = System.nanoTime();
+        long entregado = 0;     // envio mas reciente de lo que este ACK confirma llegado
+        for (int seq = ackAnterior + 1; seq <= hasta; seq++) {
+            entregado = Math.max(entregado, enviadoSinReenvio(seq));
+        }
+        for (int seq = ackAnterior + 1; seq <= hasta; seq++) {
+            if (ack.respuestasLote != null) {
+                confirmar(seq, ack.respuestasLote.getOrDefault(seq, SIN_RESPUESTA));
+            } else {
+                confirmar(seq, seq == ackNumber ? respuesta : SIN_RESPUESTA);
             }
-            
-            int antes = sentMessages.size();
-            sentMessages.entrySet().removeIf(entry -> entry.getKey() <= ackNumber);
-            int despues = sentMessages.size();
-            
-            if (!ack.getComando().startsWith("ACK:")) {
-                String mensajeServidor = ack.getComando().replace("ACK:", "");
-                System.out.println("Servidor: " + mensajeServidor);
-                ultimaRespuesta = mensajeServidor;
+        }
+        if (ackNumber > lastAckReceived) {
+            lastAckReceived = ackNumber;
+        }
+        if (hasta > ackAnterior) {
+            congestion.alConfirmar(hasta - ackAnterior);
+        }
+        
+        // El servidor ya tiene guardados estos comandos: se pausa su reenvio, pero
+        // siguen pendientes hasta que el ACK acumulativo los pase
+        long sack = ack.getSack();
+        int recibida = sack != 0 ? ackNumber + 64 - Long.numberOfLeadingZeros(sack) : ackNumber;
+        if (recibida > mayorRecibida) {
+            mayorRecibida = recibida;
+        }
+        while (sack != 0) {
+            int bit = Long.numberOfTrailingZeros(sack);
+            entregado = Math.max(entregado, enviadoSinReenvio(ackNumber + 1 + bit));
+            pausarReenvio(ackNumber + 1 + bit);
+            sack &= sack - 1;
+        }
+        if (entregado > 0) {
+            synchronized (rack) {
+                if (entregado > rackEnviado) {
+                    rackEnviado = entregado;
+                    rackRtt = ahora - entregado;
+                }
             }
-            System.out.println("==============================\n");
         }
+        reenviarPerdidos();
+        
+        // Un solo mensaje por respuesta para que el bloque no se mezcle con otros hilos
+        boolean conTexto = ack.respuestasLote != null ? !textoServidor.isEmpty() : !respuesta.equals(SIN_RESPUESTA);
+        if (conTexto) {
+            REGISTRO.registrar(INFO, "\n=== RESPUESTA DEL SERVIDOR ===\nServidor: {}\n==============================\n",
+                textoServidor);
+            ultimaRespuesta = textoServidor;
+        } else {
+            REGISTRO.registrar(INFO, "\n=== RESPUESTA DEL SERVIDOR ===\n==============================\n");
+        }
+        anunciarInicio(ack.getComando());
+        
+        // La ventana pudo crecer o liberarse: salen los comandos en cola
+        despacharPendientes();
         
         // Mostrar prompt después de procesar la respuesta
         mostrarPrompt();
     }
     
-    private void verificarTimeouts() {
-        scheduler.scheduleAtFixedRate(() -> {
-            long currentTime = System.currentTimeMillis();
-            sentMessages.forEach((seq, msg) -> {
-                if (currentTime - msg.getTimestamp() > 2000) {
-                    synchronized (responseLock) {
-                        System.out.println("\n=== TIMEOUT ===");
-                        System.out.println("Timeout para secuencia " + seq + ", reenviando...");
-                        System.out.println("================\n");
+    // PLAY y RESTART traen el instante de presentacion de la primera muestra en el reloj del servidor
+    private void anunciarInicio(String respuesta) {
+        int i = respuesta.lastIndexOf("inicio: ");
+        if (i < 0 || !reloj.sincronizado()) {
+            return;
+        }
+        try {
+            long inicio = Long.parseLong(respuesta.substring(i + 8).trim());
+            long faltan = reloj.aLocal(inicio) - RelojMedios.ahora();
+            REGISTRO.registrar(INFO, "Reproduccion sincronizada: empieza en {} ms", faltan / 1_000_000);
+        } catch (NumberFormatException e) {
+            // Respuesta de un servidor sin reloj de medios
+        }
+    }
+    
+    private void confirmar(int seq, String respuesta) {
+        Mensaje mensaje = sentMessages.remove(seq);
+        if (mensaje == null) {
+            return;
+        }
+        if (mensaje.temporizador != null) {
+            mensaje.temporizador.cancelar();
+        }
+        if (mensaje.espera != null) {
+            mensaje.espera.complete(respuesta);
+        }
+        latenciaConfirmacion.registrar((System.nanoTime() - mensaje.encoladoNanos) / 1000);
+        reenviosPorComando.registrar(mensaje.reenvios);
+        ObservadorConfirmaciones obs = observador;
+        if (obs != null) {
+            obs.confirmado(seq, System.nanoTime() - mensaje.encoladoNanos, mensaje.reenvios);
+        }
+    }
+    
+    // Cuando se envio seq si sigue pendiente y no se reenvio (si no, no se sabe que copia llego); 0 si no
+    private long enviadoSinReenvio(int seq) {
+        Mensaje mensaje = sentMessages.get(seq);
+        return mensaje != null && mensaje.getReenvios() == 0 ? mensaje.getEnviadoNanos() : 0;
+    }
+
+    // Como RACK en TCP (RFC 8985): un comando sin confirmar que salio antes que otro que ya
+    // llego se da por perdido, sin esperar al RTO, cuando pasa un RTT mas el margen de desorden.
+    // Se vuelve a mirar con cada ACK y, si falta poco, con un temporizador
+    private void reenviarPerdidos() {
+        synchronized (rack) {
+            long minRtt = estimadorRTT.minRttNanos();
+            if (rackEnviado == 0 || minRtt < 0) {
+                return;
+            }
+            // Margen: el desorden tolerado mas la variacion del RTT, que tambien retrasa el ACK que tapa el hueco
+            long margen = Math.min(Math.max(REORDEN_MIN_NANOS, minRtt / 4) * reordenMult
+                + 2 * estimadorRTT.variacionNanos(), estimadorRTT.rtoNanos());
+            long ahora = System.nanoTime();
+            // Tras una pausa del proceso (GC) todo parece atrasado y los ACK que llegaron entretanto
+            // aun no se han leido: se vuelve a mirar pasado el margen
+            long espera = rueda.finPausa() + margen - ahora;
+            if (espera <= 0) {
+                espera = Long.MAX_VALUE;
+                for (int seq = lastAckReceived + 1; seq < mayorRecibida; seq++) {
+                    Mensaje mensaje = sentMessages.get(seq);
+                    if (mensaje == null || mensaje.enBufferServidor || mensaje.getEnviadoNanos() > rackEnviado) {
+                        continue;
+                    }
+                    long vence = mensaje.getEnviadoNanos() + rackRtt + margen;
+                    if (vence > ahora) {
+                        espera = Math.min(espera, vence - ahora);
+                        continue;
+                    }
+                    REGISTRO.registrar(INFO, "Secuencia {} perdida segun SACK, reenviando...", seq);
+                    if (congestion.alTimeout(seq, nextSeqNumber)) {
+                        REGISTRO.registrar(INFO, "Ventana reducida: {}", congestion.resumen());
+                    }
+                    if (mensaje.temporizador != null) {
+                        mensaje.temporizador.cancelar();
+                    }
+                    reenviarMensaje(mensaje);
+                    programarTimeout(mensaje);
+                    if (++recuperacionesRack >= RECUPERACIONES_REORDEN) {
+                        recuperacionesRack = 0;
+                        reordenMult = 1;
                     }
-                    reenviarMensaje(msg);
                 }
-            });
-        }, 0, 1, TimeUnit.SECONDS);
+            }
+            if (temporizadorRack != null) {
+                temporizadorRack.cancelar();
+                temporizadorRack = null;
+            }
+            if (espera != Long.MAX_VALUE) {
+                temporizadorRack = rueda.programar(espera, TimeUnit.NANOSECONDS, this::reenviarPerdidos);
+            }
+        }
+    }
+
+    // El SACK no es definitivo: si el servidor pierde su buffer (por ejemplo al
+    // reiniciar la sesion) el comando se vuelve a enviar tras PAUSA_SACK RTOs
+    private void pausarReenvio(int seq) {
+        Mensaje mensaje = sentMessages.get(seq);
+        if (mensaje == null || mensaje.enBufferServidor) {
+            return;
+        }
+        mensaje.enBufferServidor = true;
+        if (mensaje.temporizador != null) {
+            mensaje.temporizador.cancelar();
+        }
+        mensaje.temporizador = rueda.programar(estimadorRTT.rtoNanos() * PAUSA_SACK, TimeUnit.NANOSECONDS,
+            () -> timeoutVencido(mensaje));
+    }
+    
+    private void programarTimeout(Mensaje mensaje) {
+        mensaje.temporizador = rueda.programar(estimadorRTT.rtoNanos(), TimeUnit.NANOSECONDS,
+            () -> timeoutVencido(mensaje));
+    }
+    
+    // Se ejecuta en el hilo de la rueda cuando vence el RTO de un comando
+    private void timeoutVencido(Mensaje msg) {
+        int seq = msg.getSequenceNumber();
+        if (sentMessages.get(seq) != msg) {
+            return;
+        }
+        if (msg.enBufferServidor) {
+            // Lleva demasiado confirmado solo por SACK: se rearma sin tocar la ventana ni el RTO
+            REGISTRO.registrar(INFO, "SACK sin confirmacion acumulativa para secuencia {}, reenviando...", seq);
+            msg.enBufferServidor = false;
+            reenviarMensaje(msg);
+            programarTimeout(msg);
+            return;
+        }
+        if (seq != lastAckReceived + 1 && seq > mayorRecibida) {
+            // Nada posterior ha llegado al servidor: no hay prueba de que se perdiera, solo
+            // de que el enlace se atasco. Como en TCP, solo se reenvia el mas antiguo
+            programarTimeout(msg);
+            return;
+        }
+        REGISTRO.registrar(INFO, "\n=== TIMEOUT ===\nTimeout para secuencia {} (RTO {} ms), reenviando...\n================\n",
+            seq, estimadorRTT.rtoNanos() / 1_000_000);
+        // Como en TCP, el backoff solo lo dispara el comando pendiente mas antiguo
+        if (seq == lastAckReceived + 1) {
+            estimadorRTT.aplicarBackoff();
+        }
+        if (congestion.alTimeout(seq, nextSeqNumber)) {
+            REGISTRO.registrar(INFO, "Ventana reducida: {}", congestion.resumen());
+        }
+        reenviarMensaje(msg);
+        programarTimeout(msg);
     }
     
+    // El servidor ya tenia seq cuando llego una copia reenviada (como DSACK en TCP): el enlace
+    // solo se atasco o desordeno, asi que se deshace la reduccion de la ventana
+    private void reenvioEspurio(int seq) {
+        int i = seq & (REENVIOS_RECORDADOS - 1);
+        synchronized (seqReenviada) {
+            if (seqReenviada[i] != seq || copiasReenviadas[i] == 0) {
+                return;     // un duplicado del propio enlace, no un reenvio nuestro
+            }
+            copiasReenviadas[i]--;
+            reenviosEspurios++;
+        }
+        synchronized (rack) {
+            // Habia desorden, no perdida: se espera mas antes de volver a reenviar por SACK
+            reordenMult++;
+            recuperacionesRack = 0;
+        }
+        congestion.deshacer();
+        REGISTRO.registrar(INFO, "Reenvio espurio [Seq:{}], ventana restaurada: {}", seq, congestion.resumen());
+    }
+
     private void reenviarMensaje(Mensaje mensaje) {
         try {
-            mensaje.updateTimestamp();
+            mensaje.marcarReenvio();
+            int seq = mensaje.getSequenceNumber();
+            int i = seq & (REENVIOS_RECORDADOS - 1);
+            synchronized (seqReenviada) {
+                if (seqReenviada[i] != seq) {
+                    seqReenviada[i] = seq;
+                    copiasReenviadas[i] = 0;
+                }
+                copiasReenviadas[i]++;
+            }
             
             byte[] datos = mensaje.toBytes();
-            DatagramPacket packet = new DatagramPacket(datos, datos.length, multicastGroup, 7777);
-            socket.send(packet);
+            enviarDatagrama(datos, datos.length);
             
             reenvios++;
-            synchronized (responseLock) {
-                System.out.println("\n=== REENVIO ===");
-                System.out.println("Reenviado: " + mensaje.getComando() + " [Seq:" + mensaje.getSequenceNumber() + "] (Reenvio #" + reenvios + ")");
-                System.out.println("================\n");
-            }
+            REGISTRO.registrar(INFO, "\n=== REENVIO ===\nReenviado: {} [Seq:{}] (Reenvio #{})\n================\n",
+                mensaje.getComando(), mensaje.getSequenceNumber(), reenvios);
             
         } catch (Exception e) {
-            System.err.println("Error reenviando mensaje: " + e.getMessage());
+            REGISTRO.error("Error reenviando mensaje: " + e.getMessage());
         }
     }
     
     private void enviarComandoConVentana(String comando) {
-        if (sentMessages.size() >= windowSize) {
-            System.out.println("Ventana llena (" + sentMessages.size() + "/" + windowSize + "), esperando ACKs...");
-            return;
+        enviarComandoConVentana(comando, null);
+    }
+    
+    private void enviarComandoConVentana(String comando, byte[] datos) {
+        encolar(comando, datos, null);
+    }
+    
+    // Encola el comando; sale en cuanto la ventana de congestion lo permite
+    private boolean encolar(String comando, byte[] datos, CompletableFuture<String> espera) {
+        synchronized (envioLock) {
+            if (colaPendientes.size() >= MAX_COLA) {
+                REGISTRO.registrar(Registro.Nivel.WARN, "Cola de envio llena ({}), se descarta: {}", MAX_COLA, comando);
+                return false;
+            }
+            colaPendientes.addLast(new ComandoPendiente(comando, datos, espera));
+            if (enVuelo() >= ventanaEfectiva()) {
+                REGISTRO.registrar(DEBUG, "Ventana llena ({}/{}), en cola: {}", enVuelo(), ventanaEfectiva(), colaPendientes.size());
+            }
+            if (!LOTES || colaPendientes.size() >= LOTE_MAX_COMANDOS) {
+                despacharPendientes();
+            } else if (!descargaProgramada) {
+                // Se espera un poco para juntar los comandos que lleguen seguidos
+                descargaProgramada = true;
+                rueda.programar(LOTE_MS, TimeUnit.MILLISECONDS, () -> {
+                    synchronized (envioLock) {
+                        descargaProgramada = false;
+                        despacharPendientes();
+                    }
+                });
+            }
         }
-        
+        return true;
+    }
+    
+    private void despacharPendientes() {
+        synchronized (envioLock) {
+            if (LOTES) {
+                despacharLotes();
+                return;
+            }
+            while (!colaPendientes.isEmpty() && enVuelo() < ventanaEfectiva()) {
+                enviarAhora(colaPendientes.pollFirst());
+            }
+        }
+    }
+    
+    // Empaqueta en cada datagrama tantos comandos como permitan la ventana y el tamaño
+    private void despacharLotes() {
+        while (!colaPendientes.isEmpty() && enVuelo() < ventanaEfectiva()) {
+            bufferLote.clear();
+            Protocolo.iniciarLote(bufferLote, lastAckReceived);
+            int primero = nextSeqNumber;
+            int entradas = 0;
+            
+            while (!colaPendientes.isEmpty() && enVuelo() < ventanaEfectiva() && entradas < LOTE_MAX_COMANDOS) {
+                ComandoPendiente pendiente = colaPendientes.peekFirst();
+                byte opcode = Protocolo.opcodeDe(pendiente.comando);
+                byte[] payload = pendiente.datos != null ? pendiente.datos
+                    : opcode == Protocolo.OP_TEXTO ? pendiente.comando.getBytes(StandardCharsets.UTF_8) : null;
+                int longitud = payload == null ? 0 : payload.length;
+                if (!Protocolo.agregarAlLote(bufferLote, 0, nextSeqNumber, opcode, payload, 0, longitud)) {
+                    break;
+                }
+                colaPendientes.pollFirst();
+                Mensaje mensaje = new Mensaje(nextSeqNumber++, lastAckReceived, pendiente.comando, pendiente.datos);
+                mensaje.encoladoNanos = pendiente.encoladoNanos;
+                mensaje.espera = pendiente.espera;
+                ocupacionVentana.registrar(enVuelo() - 1);
+                comandosEnviados.incrementar();
+                sentMessages.put(mensaje.getSequenceNumber(), mensaje);
+                programarTimeout(mensaje);
+                entradas++;
+            }
+            
+            if (entradas == 0) {
+                // No cabe en un lote: sale sola
+                enviarAhora(colaPendientes.pollFirst());
+                continue;
+            }
+            
+            try {
+                enviarDatagrama(bufferLote.array(), bufferLote.position());
+                REGISTRO.registrar(DEBUG, "Enviado lote: {} comandos [Seq:{}-{}]", entradas, primero, nextSeqNumber - 1);
+            } catch (Exception e) {
+                // Los temporizadores ya programados se encargaran de reenviarlos
+                REGISTRO.error("Error enviando lote: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void enviarAhora(ComandoPendiente pendiente) {
+        String comando = pendiente.comando;
         int currentSeq = nextSeqNumber++;
-        Mensaje mensaje = new Mensaje(currentSeq, lastAckReceived, comando);
+        Mensaje mensaje = new Mensaje(currentSeq, lastAckReceived, comando, pendiente.datos);
+        mensaje.encoladoNanos = pendiente.encoladoNanos;
+        mensaje.espera = pendiente.espera;
+        ocupacionVentana.registrar(enVuelo() - 1);
+        comandosEnviados.incrementar();
         
         try {
-            byte[] datos = mensaje.toBytes();
-            DatagramPacket packet = new DatagramPacket(datos, datos.length, multicastGroup, 7777);
-            socket.send(packet);
-            
             sentMessages.put(currentSeq, mensaje);
-            System.out.println("Enviado: " + comando);
+            programarTimeout(mensaje);
+            
+            byte[] bytes = mensaje.toBytes();
+            enviarDatagrama(bytes, bytes.length);
+            REGISTRO.registrar(DEBUG, "Enviado: {}", comando);
             
         } catch (Exception e) {
-            System.err.println("Error enviando comando: " + e.getMessage());
+            REGISTRO.error("Error enviando comando: " + e.getMessage());
         }
     }
     
+    private void enviarDatagrama(byte[] datos, int longitud) throws IOException {
+        transporte.enviar(ByteBuffer.wrap(datos, 0, longitud), servidor);
+    }
+    
     private void mostrarPrompt() {
-        synchronized (responseLock) {
-            System.out.print("Ingresa comando: ");
-        }
+        REGISTRO.imprimir("Ingresa comando: ");
     }
     
     private void enviarComandos() {
@@ -296,17 +1002,13 @@ public class Cliente {
         }
         
         scanner.close();
-        scheduler.shutdown();
-        try {
-            if (!scheduler.awaitTermination(2, TimeUnit.SECONDS)) {
-                scheduler.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            scheduler.shutdownNow();
-        }
+        rueda.detener();
         if (audioClip != null) audioClip.close();
-        socket.close();
+        if (receptorAudio != null) receptorAudio.cerrar();
+        transporte.close();
+        metricas.cerrar();
         System.out.println("Cliente terminado. Total reenvios: " + reenvios);
+        System.out.println(rttAck.resumen());
     }
     
         private void procesarComandoLocal(String comando) {
@@ -318,6 +1020,14 @@ public class Cliente {
             return;
         }
         
+        // Con flujo el audio lo controla el servidor: el comando solo se envia
+        if (receptorAudio != null && Protocolo.opcodeDe(comandoUpper) >= Protocolo.OP_PLAY
+                && Protocolo.opcodeDe(comandoUpper) <= Protocolo.OP_RESTART) {
+            System.out.println(comandoUpper + " enviado al servidor (controla el flujo de audio)");
+            enviarComandoConVentana(comandoUpper);
+            return;
+        }
+        
         // Ejecutar localmente inmediatamente
         switch (comandoUpper) {
             case "PLAY":
@@ -402,7 +1112,9 @@ public class Cliente {
     }
     
     private void mostrarEstadoLocal() {
-        if (audioClip == null) {
+        if (receptorAudio != null) {
+            System.out.println(receptorAudio.resumen());
+        } else if (audioClip == null) {
             System.out.println("Estado: Audio no cargado localmente");
         } else {
             String estado = isPlaying ? "Reproduciendo LOCALMENTE" : "Pausado LOCALMENTE";
@@ -410,6 +1122,14 @@ public class Cliente {
             long duracion = audioClip.getMicrosecondLength() / 1000000;
             System.out.println(estado + " | Tiempo: " + posicion + "/" + duracion + "s");
         }
+        System.out.println("Red: " + estimadorRTT.resumen());
+        if (receptorAudio != null) {
+            System.out.println(reloj.resumen());
+        }
+        synchronized (envioLock) {
+            System.out.println("Ventana: " + congestion.resumen() + " | En vuelo: " + enVuelo()
+                + "/" + ventanaEfectiva() + " | En cola: " + colaPendientes.size());
+        }
     }
     
     public static void main(String[] args) {
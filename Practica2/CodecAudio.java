@@ -0,0 +1,243 @@
+/**
+ * Codecs del flujo de audio, en Java puro y sin asignar memoria.
+ *
+ *   PCM16  16 bits con signo little-endian, sin comprimir
+ *   MULAW  G.711 mu-law: 8 bits por muestra (2:1)
+ *   ADPCM  IMA ADPCM: 4 bits por muestra (4:1) mas 4 bytes por canal
+ *
+ * Cada paquete ADPCM empieza, por canal, con el estado del codificador
+ * predictor(2) indice(1) reservado(1), como DVI4 en RTP (RFC 3551): asi se
+ * decodifica solo, aunque se haya perdido el anterior. Despues van las
+ * muestras intercaladas por frame, dos por byte, la primera en el nibble bajo.
+ *
+ * Una instancia guarda el estado ADPCM de cada canal del lado que codifica;
+ * decodificar es estatico porque el estado viaja en el paquete.
+ */
+public final class CodecAudio {
+    public static final int PCM16 = 0;
+    public static final int MULAW = 1;
+    public static final int ADPCM = 2;
+    // De mas a menos compresion; PCM16 lo entiende cualquier cliente
+    private static final int[] PREFERENCIA = { ADPCM, MULAW, PCM16 };
+    private static final String[] NOMBRES = { "pcm", "mulaw", "adpcm" };
+
+    /** Mascara con todos los codecs que sabe decodificar este programa. */
+    public static final int TODOS = mascara(PCM16) | mascara(MULAW) | mascara(ADPCM);
+
+    private static final int CABECERA_ADPCM = 4;
+
+    private static final int[] INDICES = { -1, -1, -1, -1, 2, 4, 6, 8, -1, -1, -1, -1, 2, 4, 6, 8 };
+    private static final int[] PASOS = {
+        7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+        50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230,
+        253, 279, 307, 337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963,
+        1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327,
+        3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487,
+        12635, 13899, 15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private static final int SESGO_MULAW = 0x84;
+    private static final int TOPE_MULAW = 32635;
+    private static final short[] MULAW_A_PCM = new short[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            int u = ~i & 0xFF;
+            int magnitud = ((((u & 0x0F) << 3) + SESGO_MULAW) << ((u & 0x70) >> 4)) - SESGO_MULAW;
+            MULAW_A_PCM[i] = (short) ((u & 0x80) != 0 ? -magnitud : magnitud);
+        }
+    }
+
+    private final int canales;
+    private final int[] predictores;
+    private final int[] indices;
+
+    public CodecAudio(int canales) {
+        this.canales = canales;
+        this.predictores = new int[canales];
+        this.indices = new int[canales];
+    }
+
+    public static int mascara(int codec) {
+        return 1 << codec;
+    }
+
+    public static String nombre(int codec) {
+        return codec >= 0 && codec < NOMBRES.length ? NOMBRES[codec] : "?";
+    }
+
+    // Codec por nombre (-Dservidor.audio.codec); ADPCM si no se reconoce
+    public static int deNombre(String nombre) {
+        for (int i = 0; i < NOMBRES.length; i++) {
+            if (NOMBRES[i].equalsIgnoreCase(nombre)) {
+                return i;
+            }
+        }
+        return ADPCM;
+    }
+
+    /** El preferido si todos lo entienden; si no, el mas compacto que si. */
+    public static int elegir(int preferido, int comunes) {
+        if ((comunes & mascara(preferido)) != 0) {
+            return preferido;
+        }
+        for (int codec : PREFERENCIA) {
+            if ((comunes & mascara(codec)) != 0) {
+                return codec;
+            }
+        }
+        return PCM16;
+    }
+
+    /** Bytes que ocupan frames de audio con el codec. */
+    public static int longitud(int codec, int frames, int canales) {
+        switch (codec) {
+            case MULAW: return frames * canales;
+            case ADPCM: return CABECERA_ADPCM * canales + (frames * canales + 1) / 2;
+            default: return frames * canales * 2;
+        }
+    }
+
+    /** Frames que caben como maximo en bytes con el codec. */
+    public static int framesQueCaben(int codec, int bytes, int canales) {
+        switch (codec) {
+            case MULAW: return bytes / canales;
+            case ADPCM: return Math.max(0, (bytes - CABECERA_ADPCM * canales) * 2 / canales);
+            default: return bytes / (canales * 2);
+        }
+    }
+
+    /** Codifica frames de PCM16 en destino y devuelve los bytes escritos. */
+    public int codificar(int codec, byte[] pcm, int offset, int frames, byte[] destino, int offsetDestino) {
+        int muestras = frames * canales;
+        switch (codec) {
+            case MULAW:
+                for (int i = 0; i < muestras; i++) {
+                    destino[offsetDestino + i] = aMulaw(muestra(pcm, offset + 2 * i));
+                }
+                return muestras;
+            case ADPCM:
+                return codificarAdpcm(pcm, offset, muestras, destino, offsetDestino);
+            default:
+                System.arraycopy(pcm, offset, destino, offsetDestino, muestras * 2);
+                return muestras * 2;
+        }
+    }
+
+    /** Decodifica un paquete a PCM16 en destino y devuelve los bytes escritos. */
+    public static int decodificar(int codec, byte[] origen, int offset, int longitud, int canales, byte[] destino) {
+        switch (codec) {
+            case MULAW: {
+                int n = Math.min(longitud, destino.length / 2);
+                for (int i = 0; i < n; i++) {
+                    escribir(destino, 2 * i, MULAW_A_PCM[origen[offset + i] & 0xFF]);
+                }
+                return n * 2;
+            }
+            case ADPCM:
+                return decodificarAdpcm(origen, offset, longitud, canales, destino);
+            default: {
+                int n = Math.min(longitud, destino.length);
+                System.arraycopy(origen, offset, destino, 0, n);
+                return n;
+            }
+        }
+    }
+
+    private int codificarAdpcm(byte[] pcm, int offset, int muestras, byte[] destino, int inicio) {
+        for (int c = 0; c < canales; c++) {
+            int i = inicio + CABECERA_ADPCM * c;
+            destino[i] = (byte) (predictores[c] >> 8);
+            destino[i + 1] = (byte) predictores[c];
+            destino[i + 2] = (byte) indices[c];
+            destino[i + 3] = 0;
+        }
+        int datos = inicio + CABECERA_ADPCM * canales;
+        for (int k = 0; k < muestras; k++) {
+            int c = k % canales;
+            int predictor = predictores[c];
+            int indice = indices[c];
+            int paso = PASOS[indice];
+
+            int diferencia = muestra(pcm, offset + 2 * k) - predictor;
+            int nibble = 0;
+            if (diferencia < 0) {
+                nibble = 8;
+                diferencia = -diferencia;
+            }
+            int delta = paso >> 3;
+            if (diferencia >= paso) { nibble |= 4; diferencia -= paso; delta += paso; }
+            paso >>= 1;
+            if (diferencia >= paso) { nibble |= 2; diferencia -= paso; delta += paso; }
+            paso >>= 1;
+            if (diferencia >= paso) { nibble |= 1; delta += paso; }
+
+            predictor += (nibble & 8) != 0 ? -delta : delta;
+            predictores[c] = Math.max(-32768, Math.min(32767, predictor));
+            indices[c] = Math.max(0, Math.min(88, indice + INDICES[nibble]));
+
+            int b = datos + (k >> 1);
+            destino[b] = (k & 1) == 0 ? (byte) nibble : (byte) (destino[b] | (nibble << 4));
+        }
+        return CABECERA_ADPCM * canales + (muestras + 1) / 2;
+    }
+
+    private static int decodificarAdpcm(byte[] origen, int offset, int longitud, int canales, byte[] destino) {
+        int datos = CABECERA_ADPCM * canales;
+        if (longitud < datos) {
+            return 0;
+        }
+        // Estado de hasta dos canales en locales: decodificar no asigna memoria
+        int p0 = 0, i0 = 0, p1 = 0, i1 = 0;
+        for (int c = 0; c < Math.min(canales, 2); c++) {
+            int j = offset + CABECERA_ADPCM * c;
+            int predictor = (short) (((origen[j] & 0xFF) << 8) | (origen[j + 1] & 0xFF));
+            int indice = Math.max(0, Math.min(88, origen[j + 2]));
+            if (c == 0) { p0 = predictor; i0 = indice; } else { p1 = predictor; i1 = indice; }
+        }
+        int muestras = Math.min((longitud - datos) * 2, destino.length / 2);
+        muestras -= muestras % canales;
+        for (int k = 0; k < muestras; k++) {
+            int b = origen[offset + datos + (k >> 1)];
+            int nibble = (k & 1) == 0 ? b & 0x0F : (b >> 4) & 0x0F;
+            boolean segundo = canales > 1 && (k % canales) == 1;
+            int predictor = segundo ? p1 : p0;
+            int indice = segundo ? i1 : i0;
+            int paso = PASOS[indice];
+
+            int delta = paso >> 3;
+            if ((nibble & 4) != 0) delta += paso;
+            if ((nibble & 2) != 0) delta += paso >> 1;
+            if ((nibble & 1) != 0) delta += paso >> 2;
+            predictor += (nibble & 8) != 0 ? -delta : delta;
+            predictor = Math.max(-32768, Math.min(32767, predictor));
+            indice = Math.max(0, Math.min(88, indice + INDICES[nibble]));
+
+            if (segundo) { p1 = predictor; i1 = indice; } else { p0 = predictor; i0 = indice; }
+            escribir(destino, 2 * k, predictor);
+        }
+        return muestras * 2;
+    }
+
+    private static byte aMulaw(int muestra) {
+        int signo = (muestra >> 8) & 0x80;
+        if (signo != 0) {
+            muestra = -muestra;
+        }
+        muestra = Math.min(muestra, TOPE_MULAW) + SESGO_MULAW;
+        int exponente = 7;
+        for (int mascara = 0x4000; (muestra & mascara) == 0 && exponente > 0; mascara >>= 1) {
+            exponente--;
+        }
+        int mantisa = (muestra >> (exponente + 3)) & 0x0F;
+        return (byte) ~(signo | (exponente << 4) | mantisa);
+    }
+
+    private static int muestra(byte[] pcm, int i) {
+        return (short) ((pcm[i] & 0xFF) | (pcm[i + 1] << 8));
+    }
+
+    private static void escribir(byte[] pcm, int i, int muestra) {
+        pcm[i] = (byte) muestra;
+        pcm[i + 1] = (byte) (muestra >> 8);
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Ventana de congestion AIMD con arranque lento para el Cliente.
+ *
+ * Mientras cwnd < ssthresh crece un comando por cada comando confirmado
+ * (arranque lento); despues crece 1/cwnd por confirmacion (un comando por
+ * RTT). Un timeout reduce la ventana a la mitad una sola vez por ventana:
+ * los timeouts de comandos enviados antes de la ultima reduccion se ignoran.
+ * Si el timeout resulta espurio (el enlace se atasco pero no perdio nada) la
+ * reduccion se deshace.
+ */
+public class ControlCongestion {
+    private final int minimo;
+    private final int maximo;
+
+    private double cwnd;
+    private double ssthresh;
+    private int puntoRecuperacion = -1;
+    private double cwndAnterior = 0;       // antes de la ultima reduccion; 0 = nada que deshacer
+    private double ssthreshAnterior;
+
+    private long reducciones = 0;
+    private long deshechas = 0;
+
+    public ControlCongestion(int inicial, int minimo, int maximo) {
+        this.minimo = minimo;
+        this.maximo = maximo;
+        this.cwnd = Math.max(minimo, Math.min(inicial, maximo));
+        this.ssthresh = maximo;
+    }
+
+    // Comandos en vuelo permitidos ahora mismo
+    public synchronized int ventana() {
+        return (int) cwnd;
+    }
+
+    public synchronized void alConfirmar(int confirmados) {
+        for (int i = 0; i < confirmados && cwnd < maximo; i++) {
+            if (cwnd < ssthresh) {
+                cwnd += 1;
+            } else {
+                cwnd += 1 / cwnd;
+            }
+        }
+        cwnd = Math.min(cwnd, maximo);
+    }
+
+    /**
+     * Timeout de la secuencia seq; siguienteSeq es la proxima secuencia que
+     * se enviara. Devuelve true si la ventana se redujo.
+     */
+    public synchronized boolean alTimeout(int seq, int siguienteSeq) {
+        if (seq < puntoRecuperacion) {
+            return false;
+        }
+        cwndAnterior = cwnd;
+        ssthreshAnterior = ssthresh;
+        ssthresh = Math.max(minimo, cwnd / 2);
+        cwnd = ssthresh;
+        puntoRecuperacion = siguienteSeq;
+        reducciones++;
+        return true;
+    }
+
+    // El ultimo timeout fue espurio: vuelve la ventana de antes de reducirla
+    public synchronized void deshacer() {
+        if (cwndAnterior > 0) {
+            cwnd = Math.max(cwnd, cwndAnterior);
+            ssthresh = ssthreshAnterior;
+            cwndAnterior = 0;
+            deshechas++;
+        }
+    }
+
+    // La numeracion vuelve a empezar en 0: el punto de recuperacion ya no sirve
+    public synchronized void nuevaSesion() {
+        puntoRecuperacion = -1;
+    }
+
+    public synchronized String resumen() {
+        return String.format("cwnd: %.2f | ssthresh: %s | fase: %s | reducciones: %d (deshechas %d)",
+            cwnd,
+            ssthresh >= maximo ? "-" : String.format("%.2f", ssthresh),
+            cwnd < ssthresh ? "arranque lento" : "evitacion de congestion",
+            reducciones, deshechas);
+    }
+}
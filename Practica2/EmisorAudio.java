@@ -0,0 +1,301 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * Emite un archivo de audio al grupo multicast como flujo de tramas OP_AUDIO,
+ * al ritmo de la tasa de muestreo. El archivo se lee como PCM de 16 bits y
+ * cada paquete sale con el codec negociado (CodecAudio), que puede cambiar
+ * entre un paquete y el siguiente cuando se conecta un cliente mas limitado.
+ *
+ * Cada paquete sale en el instante que le toca por su marca de tiempo
+ * (ancla + muestras / tasa), asi los retrasos del planificador no se
+ * acumulan. PLAY/PAUSE/STOP/RESTART solo cambian el estado y el hilo emisor
+ * lo consulta antes de cada paquete. Como en RTP, seq y marca de tiempo
+ * nunca retroceden, ni al pausar ni al reiniciar.
+ *
+ * Cada paquete lleva ademas su instante de presentacion en el reloj de pared
+ * del servidor (RelojMedios): el de emision mas un retardo fijo que cubre la
+ * red y el buffer de cada oyente. Los clientes que conocen su desfase con el
+ * servidor reproducen cada muestra en ese instante y suenan a la vez.
+ * reproducir() y reiniciar() devuelven el instante de presentacion de la
+ * primera muestra que saldra.
+ *
+ * Con fec = n > 0, tras cada n paquetes se emite su paridad XOR (OP_PARIDAD)
+ * para que cada oyente reconstruya una perdida por grupo sin retransmision.
+ */
+public class EmisorAudio {
+    private enum Estado { DETENIDO, REPRODUCIENDO, PAUSADO }
+
+    private static final int BITS = 16;
+
+    private final File archivo;
+    private final InetAddress grupo;
+    private final int puerto;
+    private final MulticastSocket socket;
+    private final int flujo = ThreadLocalRandom.current().nextInt();
+    private final int msPorPaquete;
+    private final boolean bucle;
+    private final int fec;
+    private final long retardoNanos;
+    private volatile int codec;
+    private final Thread hilo;
+
+    // Estado de control, protegido por this
+    private Estado estado = Estado.DETENIDO;
+    private boolean rebobinar = true;
+    private boolean reanclar = true;
+    private long anclaPendiente;      // System.nanoTime() de la orden que reancla
+
+    // Solo el hilo emisor
+    private AudioInputStream entrada;
+    private volatile AudioFormat formato;
+    private CodecAudio codificador;
+    private int framesPorPaquete;
+    private int seq = 0;
+    private int marca = 0;
+
+    // Paridad del grupo FEC en curso (solo el hilo emisor)
+    private final byte[] paridad = new byte[Protocolo.MAX_PAYLOAD];
+    private int longitudParidad = 0;
+    private int longitudesXor = 0;
+    private int primerSeqGrupo;
+    private int enGrupo = 0;
+
+    private volatile long paquetesEnviados = 0;
+
+    public EmisorAudio(File archivo, InetAddress grupo, int puerto, NetworkInterface interfaz,
+                       int msPorPaquete, boolean bucle, int fec, int msRetardo, int codec) throws IOException {
+        this.archivo = archivo;
+        this.grupo = grupo;
+        this.puerto = puerto;
+        this.msPorPaquete = Math.max(1, msPorPaquete);
+        this.bucle = bucle;
+        this.fec = Math.max(0, Math.min(fec, 16));
+        this.retardoNanos = Math.max(0, msRetardo) * 1_000_000L;
+        this.codec = codec;
+
+        abrir();   // falla aqui, y no en el hilo, si el archivo no se puede leer
+        rebobinar = false;
+
+        socket = new MulticastSocket();
+        socket.setTimeToLive(255);
+        if (interfaz != null) {
+            socket.setNetworkInterface(interfaz);
+        }
+
+        hilo = new Thread(this::emitir, "servidor-audio");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /** Devuelve el instante de presentacion del reinicio, o 0 si ya estaba sonando. */
+    public synchronized long reproducir() {
+        if (estado == Estado.REPRODUCIENDO) {
+            return 0;
+        }
+        estado = Estado.REPRODUCIENDO;
+        return anclar();
+    }
+
+    public synchronized void pausar() {
+        if (estado == Estado.REPRODUCIENDO) {
+            estado = Estado.PAUSADO;
+        }
+    }
+
+    public synchronized void detener() {
+        estado = Estado.DETENIDO;
+        rebobinar = true;
+    }
+
+    public synchronized long reiniciar() {
+        estado = Estado.REPRODUCIENDO;
+        rebobinar = true;
+        return anclar();
+    }
+
+    // El hilo emisor toma como ancla el instante de la orden, no el de despertar
+    private long anclar() {
+        reanclar = true;
+        anclaPendiente = System.nanoTime();
+        notifyAll();
+        return RelojMedios.dePared(anclaPendiente) + retardoNanos;
+    }
+
+    /** Codec de los siguientes paquetes; ADPCM solo llega a dos canales. */
+    public void setCodec(int codec) {
+        AudioFormat f = formato;
+        this.codec = codec == CodecAudio.ADPCM && f != null && f.getChannels() > 2 ? CodecAudio.MULAW : codec;
+    }
+
+    public int getCodec() {
+        return codec;
+    }
+
+    public synchronized String resumen() {
+        AudioFormat f = formato;
+        return "Audio: " + estado.name().toLowerCase()
+            + " | " + archivo.getName()
+            + (f != null ? " (" + (int) f.getSampleRate() + " Hz, " + f.getChannels() + " canales)" : "")
+            + " | codec: " + CodecAudio.nombre(codec)
+            + (f != null ? " (" + CodecAudio.longitud(codec, (int) f.getSampleRate(), f.getChannels()) * 8 / 1000 + " kbit/s)" : "")
+            + " | paquetes: " + paquetesEnviados
+            + (fec > 0 ? " | FEC: 1 paridad cada " + fec : "")
+            + " | retardo de presentacion: " + retardoNanos / 1_000_000 + " ms";
+    }
+
+    public void cerrar() {
+        hilo.interrupt();
+        socket.close();
+    }
+
+    // Abre el archivo y lo convierte a PCM de 16 bits con signo little-endian
+    private void abrir() throws IOException {
+        if (entrada != null) {
+            entrada.close();
+        }
+        try {
+            AudioInputStream original = AudioSystem.getAudioInputStream(archivo);
+            AudioFormat origen = original.getFormat();
+            AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, origen.getSampleRate(), BITS,
+                origen.getChannels(), origen.getChannels() * BITS / 8, origen.getSampleRate(), false);
+            entrada = origen.matches(pcm) ? original : AudioSystem.getAudioInputStream(pcm, original);
+        } catch (javax.sound.sampled.UnsupportedAudioFileException | IllegalArgumentException e) {
+            throw new IOException("Formato de audio no soportado: " + archivo + " (" + e.getMessage() + ")", e);
+        }
+        formato = entrada.getFormat();
+        setCodec(codec);
+        codificador = new CodecAudio(formato.getChannels());
+        framesPorPaquete = Math.max(1, (int) (formato.getSampleRate() * msPorPaquete / 1000));
+    }
+
+    // Frames del siguiente paquete: msPorPaquete sin pasar del datagrama con el codec actual
+    private int frames(int codec) {
+        int maximo = CodecAudio.framesQueCaben(codec, Protocolo.MAX_PAYLOAD_PROTEGIDO - Protocolo.CABECERA_AUDIO,
+            formato.getChannels());
+        return Math.max(1, Math.min(framesPorPaquete, maximo));
+    }
+
+    private void emitir() {
+        byte[] pcm = new byte[4 * Protocolo.MAX_PAYLOAD];   // hasta 4:1 con ADPCM
+        byte[] codificado = new byte[Protocolo.MAX_PAYLOAD];
+        ByteBuffer buffer = ByteBuffer.allocate(Protocolo.MAX_DATAGRAMA);
+        DatagramPacket paquete = new DatagramPacket(buffer.array(), 0, grupo, puerto);
+        long anclaNanos = 0;
+        int anclaMarca = 0;
+
+        try {
+            while (true) {
+                boolean reabrir;
+                synchronized (this) {
+                    while (estado != Estado.REPRODUCIENDO) {
+                        wait();
+                    }
+                    reabrir = rebobinar;
+                    rebobinar = false;
+                    if (reanclar) {
+                        reanclar = false;
+                        anclaNanos = anclaPendiente;
+                        anclaMarca = marca;
+                    }
+                }
+                if (reabrir) {
+                    abrir();
+                }
+
+                int codecPaquete = codec;
+                int leidos = leer(pcm, frames(codecPaquete) * formato.getFrameSize());
+                if (leidos <= 0) {
+                    finDeArchivo();
+                    continue;
+                }
+
+                long instante = anclaNanos + (long) ((marca - anclaMarca) * 1e9 / formato.getSampleRate());
+                long presentacion = RelojMedios.dePared(instante) + retardoNanos;
+                long espera;
+                while ((espera = instante - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, espera);
+                    if (Thread.interrupted()) {
+                        return;
+                    }
+                }
+
+                int longitud = codificador.codificar(codecPaquete, pcm, 0, leidos / formato.getFrameSize(), codificado, 0);
+                buffer.clear();
+                Protocolo.codificarAudio(buffer, seq, marca, flujo, (int) formato.getSampleRate(),
+                    formato.getChannels(), presentacion, codecPaquete, codificado, 0, longitud);
+                paquete.setData(buffer.array(), 0, buffer.position());
+                socket.send(paquete);
+
+                if (fec > 0) {
+                    acumularParidad(buffer.array(), Protocolo.CABECERA, buffer.position() - Protocolo.CABECERA);
+                    if (enGrupo == fec) {
+                        buffer.clear();
+                        Protocolo.codificarParidad(buffer, primerSeqGrupo, enGrupo, longitudesXor, paridad, longitudParidad);
+                        paquete.setData(buffer.array(), 0, buffer.position());
+                        socket.send(paquete);
+                        enGrupo = 0;
+                    }
+                }
+
+                seq++;
+                marca += leidos / formato.getFrameSize();
+                paquetesEnviados++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                System.err.println("Error emitiendo audio: " + e.getMessage());
+            }
+        }
+    }
+
+    // Suma (XOR) el payload de la trama seq a la paridad del grupo
+    private void acumularParidad(byte[] datos, int offset, int longitud) {
+        if (enGrupo == 0) {
+            Arrays.fill(paridad, 0, longitudParidad, (byte) 0);
+            longitudParidad = 0;
+            longitudesXor = 0;
+            primerSeqGrupo = seq;
+        }
+        for (int i = 0; i < longitud; i++) {
+            paridad[i] ^= datos[offset + i];
+        }
+        longitudParidad = Math.max(longitudParidad, longitud);
+        longitudesXor ^= longitud;
+        enGrupo++;
+    }
+
+    private synchronized void finDeArchivo() {
+        rebobinar = true;
+        if (!bucle) {
+            estado = Estado.DETENIDO;
+        }
+    }
+
+    // Lee hasta longitud bytes (frames completos) o lo que quede del archivo
+    private int leer(byte[] destino, int longitud) throws IOException {
+        int total = 0;
+        while (total < longitud) {
+            int n = entrada.read(destino, total, longitud - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total - total % formato.getFrameSize();
+    }
+}
@@ -0,0 +1,298 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enlace punto a punto en memoria con las imperfecciones de una red real.
+ *
+ * Cada sentido (subida: cliente -> servidor, bajada: servidor -> cliente) se
+ * configura con un Perfil: perdida, retardo base mas una variacion con la
+ * distribucion elegida, duplicacion, desorden y ancho de banda. Con ancho de
+ * banda los datagramas hacen cola como en un enlace lento (tiempo de
+ * serializacion) y se tiran si la cola supera COLA_BYTES. Los datagramas
+ * salen en orden salvo los elegidos para desordenar, que se retrasan
+ * RETARDO_DESORDEN sin frenar a los siguientes. Con la misma semilla el
+ * enlace toma siempre las mismas decisiones.
+ *
+ * Los extremos son Transporte: el destino de enviar se ignora (todo va al
+ * otro extremo) y recibir devuelve la direccion fija del otro extremo.
+ */
+public final class EnlaceEmulado {
+
+    public enum Distribucion { UNIFORME, NORMAL, PARETO }
+
+    private static final long COLA_BYTES = 256 * 1024;
+    private static final long RETARDO_DESORDEN = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final int PENDIENTES = 4096;
+
+    /** Imperfecciones de un sentido del enlace. */
+    public static final class Perfil {
+        private final String nombre;
+        private double perdida;
+        private long retardoNanos;
+        private long variacionNanos;
+        private Distribucion distribucion = Distribucion.UNIFORME;
+        private double duplicacion;
+        private double desorden;
+        private long bytesPorSegundo;
+
+        public Perfil(String nombre) {
+            this.nombre = nombre;
+        }
+
+        public Perfil perdida(double p) { this.perdida = p; return this; }
+        public Perfil duplicacion(double p) { this.duplicacion = p; return this; }
+        public Perfil desorden(double p) { this.desorden = p; return this; }
+        public Perfil anchoDeBanda(long bitsPorSegundo) { this.bytesPorSegundo = bitsPorSegundo / 8; return this; }
+
+        // retardo + variacion: UNIFORME en [0, v], NORMAL con desviacion v/2 (sin negativos), PARETO de escala v/4
+        public Perfil retardo(long ms, long variacionMs, Distribucion distribucion) {
+            this.retardoNanos = TimeUnit.MILLISECONDS.toNanos(ms);
+            this.variacionNanos = TimeUnit.MILLISECONDS.toNanos(variacionMs);
+            this.distribucion = distribucion;
+            return this;
+        }
+
+        public String nombre() {
+            return nombre;
+        }
+
+        public boolean sinPerdida() {
+            return perdida == 0;
+        }
+
+        // Con cola pesada un retardo puede superar cualquier RTO
+        public boolean retardoAcotado() {
+            return variacionNanos == 0 || distribucion != Distribucion.PARETO;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (perdida %.0f%%, retardo %d+%d ms %s, duplicados %.0f%%, desorden %.0f%%, %s)",
+                nombre, perdida * 100, retardoNanos / 1_000_000, variacionNanos / 1_000_000,
+                distribucion.name().toLowerCase(), duplicacion * 100, desorden * 100,
+                bytesPorSegundo > 0 ? bytesPorSegundo * 8 / 1000 + " kbit/s" : "sin limite");
+        }
+    }
+
+    // Datagrama en transito; a igual entrega sale antes el que se envio antes
+    private static final class Envio implements Delayed {
+        private static final AtomicLong ORDEN = new AtomicLong();
+
+        final byte[] datos;
+        final long entrega;
+        final long orden = ORDEN.getAndIncrement();
+
+        Envio(byte[] datos, long entrega) {
+            this.datos = datos;
+            this.entrega = entrega;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unidad) {
+            return unidad.convert(entrega - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed otro) {
+            Envio e = (Envio) otro;
+            // Los que esperan tras uno lento comparten su entrega y DelayQueue no desempata
+            return entrega != e.entrega ? Long.compare(entrega, e.entrega) : Long.compare(orden, e.orden);
+        }
+    }
+
+    private static final Envio CIERRE = new Envio(new byte[0], 0);
+
+    private final Extremo cliente;
+    private final Extremo servidor;
+
+    public EnlaceEmulado(Perfil subida, Perfil bajada, long semilla) throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        SplittableRandom aleatorio = new SplittableRandom(semilla);
+        cliente = new Extremo(new InetSocketAddress(loopback, 40000));
+        servidor = new Extremo(new InetSocketAddress(loopback, 7777));
+        cliente.conectar(servidor, subida, aleatorio.split(), "enlace-subida");
+        servidor.conectar(cliente, bajada, aleatorio.split(), "enlace-bajada");
+    }
+
+    public Transporte cliente() {
+        return cliente;
+    }
+
+    public Transporte servidor() {
+        return servidor;
+    }
+
+    public SocketAddress direccionServidor() {
+        return servidor.direccion;
+    }
+
+    public String resumen() {
+        return "subida: " + cliente.resumen() + " | bajada: " + servidor.resumen();
+    }
+
+    public void cerrar() {
+        cliente.close();
+        servidor.close();
+    }
+
+    // Un extremo recibe de su cola y envia a traves de su sentido hacia el otro
+    private static final class Extremo implements Transporte {
+        private final SocketAddress direccion;
+        private final BlockingQueue<Envio> entrada = new ArrayBlockingQueue<>(PENDIENTES);
+        private final DelayQueue<Envio> enTransito = new DelayQueue<>();
+        private Extremo otro;
+        private Perfil perfil;
+        private SplittableRandom aleatorio;
+        private Thread repartidor;
+        private volatile boolean abierto = true;
+
+        // Estado del sentido de salida, protegido por this
+        private long libre = 0;            // cuando termina de salir lo que esta en cola
+        private long ultimaEntrega = 0;
+        private long enviados, perdidos, duplicados, desordenados, tirados;
+
+        Extremo(SocketAddress direccion) {
+            this.direccion = direccion;
+        }
+
+        void conectar(Extremo otro, Perfil perfil, SplittableRandom aleatorio, String nombre) {
+            this.otro = otro;
+            this.perfil = perfil;
+            this.aleatorio = aleatorio;
+            repartidor = new Thread(this::repartir, nombre);
+            repartidor.setDaemon(true);
+            repartidor.start();
+        }
+
+        @Override
+        public SocketAddress recibir(ByteBuffer destino) throws IOException {
+            Envio e;
+            try {
+                e = entrada.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SocketException("Interrumpido");
+            }
+            if (e == CIERRE || !abierto) {
+                entrada.offer(CIERRE);
+                throw new SocketException("Socket closed");
+            }
+            destino.put(e.datos, 0, Math.min(e.datos.length, destino.remaining()));
+            return otro.direccion;
+        }
+
+        @Override
+        public synchronized void enviar(ByteBuffer datagrama, SocketAddress destino) throws IOException {
+            if (!abierto) {
+                throw new SocketException("Socket closed");
+            }
+            byte[] datos = new byte[datagrama.remaining()];
+            datagrama.get(datos);
+            enviados++;
+            if (aleatorio.nextDouble() < perfil.perdida) {
+                perdidos++;
+                return;
+            }
+
+            long ahora = System.nanoTime();
+            long salida = ahora;
+            if (perfil.bytesPorSegundo > 0) {
+                // Cola del enlace lento: se tira si ya hay demasiado esperando a salir
+                long inicio = Math.max(ahora, libre);
+                if ((inicio - ahora) * perfil.bytesPorSegundo / 1_000_000_000L > COLA_BYTES) {
+                    tirados++;
+                    return;
+                }
+                salida = inicio + datos.length * 1_000_000_000L / perfil.bytesPorSegundo;
+                libre = salida;
+            }
+
+            long entrega = Math.max(salida + retardo(), ultimaEntrega);
+            if (aleatorio.nextDouble() < perfil.desorden) {
+                desordenados++;
+                enTransito.add(new Envio(datos, entrega + RETARDO_DESORDEN));
+            } else {
+                ultimaEntrega = entrega;
+                enTransito.add(new Envio(datos, entrega));
+            }
+            if (aleatorio.nextDouble() < perfil.duplicacion) {
+                duplicados++;
+                enTransito.add(new Envio(Arrays.copyOf(datos, datos.length), entrega + aleatorio.nextLong(1_000_000L)));
+            }
+        }
+
+        private long retardo() {
+            long v = perfil.variacionNanos;
+            if (v == 0) {
+                return perfil.retardoNanos;
+            }
+            double extra;
+            switch (perfil.distribucion) {
+                case NORMAL:
+                    extra = Math.max(0, v / 2.0 + gaussiana() * v / 2.0);
+                    break;
+                case PARETO:
+                    // Cola pesada (alfa = 1.5): la mayoria cerca de la base y alguno muy tarde
+                    extra = v / 4.0 * (Math.pow(1 - aleatorio.nextDouble(), -1 / 1.5) - 1);
+                    break;
+                default:
+                    extra = aleatorio.nextDouble() * v;
+            }
+            return perfil.retardoNanos + (long) extra;
+        }
+
+        private double gaussiana() {
+            // Box-Muller con el generador del enlace para que sea reproducible
+            double u = 1 - aleatorio.nextDouble();
+            return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * aleatorio.nextDouble());
+        }
+
+        // Lleva cada datagrama a la cola del otro extremo cuando le toca
+        private void repartir() {
+            try {
+                while (true) {
+                    Envio e = enTransito.take();
+                    if (e == CIERRE) {
+                        return;
+                    }
+                    if (!otro.entrada.offer(e)) {
+                        synchronized (this) {
+                            tirados++;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public boolean abierto() {
+            return abierto;
+        }
+
+        @Override
+        public void close() {
+            abierto = false;
+            entrada.offer(CIERRE);
+            enTransito.add(CIERRE);
+        }
+
+        synchronized String resumen() {
+            return enviados + " enviados, " + perdidos + " perdidos, " + duplicados + " duplicados, "
+                + desordenados + " desordenados, " + tirados + " tirados en cola";
+        }
+    }
+}
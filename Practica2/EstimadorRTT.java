@@ -0,0 +1,90 @@
+/**
+ * Estimacion del tiempo de ida y vuelta y del timeout de retransmision
+ * (Jacobson/Karels, RFC 6298).
+ *
+ *   SRTT   = 7/8 SRTT + 1/8 R
+ *   RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|
+ *   RTO    = SRTT + max(G, 4 RTTVAR), acotado a [min, max]
+ *
+ * Cada timeout duplica el RTO (backoff exponencial) hasta que llega una
+ * muestra nueva. Por la regla de Karn, el llamador no debe entregar muestras
+ * de mensajes que se hayan retransmitido.
+ */
+public class EstimadorRTT {
+    private static final long GRANULARIDAD_NANOS = 1_000_000L; // 1 ms
+
+    private final long rtoMinNanos;
+    private final long rtoMaxNanos;
+
+    private long srtt = -1;
+    private long rttvar;
+    private long rtoBase;
+    private int backoff = 0;
+
+    private long muestras = 0;
+    private long ultimaMuestra;
+    private long minRtt = Long.MAX_VALUE;
+    private long maxRtt = 0;
+
+    public EstimadorRTT(long rtoInicialMs, long rtoMinMs, long rtoMaxMs) {
+        this.rtoMinNanos = rtoMinMs * 1_000_000L;
+        this.rtoMaxNanos = rtoMaxMs * 1_000_000L;
+        this.rtoBase = acotar(rtoInicialMs * 1_000_000L);
+    }
+
+    public synchronized void muestra(long rttNanos) {
+        if (rttNanos < 0) {
+            return;
+        }
+        if (srtt < 0) {
+            srtt = rttNanos;
+            rttvar = rttNanos / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - rttNanos)) / 4;
+            srtt = (7 * srtt + rttNanos) / 8;
+        }
+        rtoBase = acotar(srtt + Math.max(GRANULARIDAD_NANOS, 4 * rttvar));
+        backoff = 0;
+
+        muestras++;
+        ultimaMuestra = rttNanos;
+        minRtt = Math.min(minRtt, rttNanos);
+        maxRtt = Math.max(maxRtt, rttNanos);
+    }
+
+    // Llamar al vencer un timeout: duplica el RTO hasta el maximo
+    public synchronized void aplicarBackoff() {
+        if ((rtoBase << (backoff + 1)) <= rtoMaxNanos) {
+            backoff++;
+        }
+    }
+
+    // Variacion del RTT (rttvar); 0 sin muestras
+    public synchronized long variacionNanos() {
+        return srtt < 0 ? 0 : rttvar;
+    }
+
+    // RTT minimo observado; -1 sin muestras
+    public synchronized long minRttNanos() {
+        return muestras == 0 ? -1 : minRtt;
+    }
+
+    public synchronized long rtoNanos() {
+        return Math.min(rtoBase << backoff, rtoMaxNanos);
+    }
+
+    public synchronized String resumen() {
+        return String.format("RTO: %.1f ms | SRTT: %s | RTTVAR: %s | Ultimo: %s | Min/Max: %s/%s | Muestras: %d | Backoff: x%d",
+            rtoNanos() / 1e6,
+            srtt < 0 ? "-" : String.format("%.2f ms", srtt / 1e6),
+            srtt < 0 ? "-" : String.format("%.2f ms", rttvar / 1e6),
+            muestras == 0 ? "-" : String.format("%.2f ms", ultimaMuestra / 1e6),
+            muestras == 0 ? "-" : String.format("%.2f", minRtt / 1e6),
+            muestras == 0 ? "-" : String.format("%.2f ms", maxRtt / 1e6),
+            muestras, 1 << backoff);
+    }
+
+    private long acotar(long rto) {
+        return Math.max(rtoMinNanos, Math.min(rtoMaxNanos, rto));
+    }
+}
@@ -0,0 +1,75 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creacion de hilos con o sin hilos virtuales.
+ *
+ * Los hilos virtuales llegaron con Java 21 y la practica se compila tambien
+ * con versiones anteriores, asi que Thread.ofVirtual() y
+ * Executors.newVirtualThreadPerTaskExecutor() se buscan por reflexion una sola
+ * vez. Si no existen, o no se piden, se usan hilos de plataforma daemon.
+ */
+public final class Hilos {
+    private static final Method OF_VIRTUAL;
+    private static final Method NOMBRAR;
+    private static final Method INICIAR;
+    private static final Method POR_TAREA;
+    static {
+        Method ofVirtual = null;
+        Method nombrar = null;
+        Method iniciar = null;
+        Method porTarea = null;
+        try {
+            Class<?> constructor = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            nombrar = constructor.getMethod("name", String.class);
+            iniciar = constructor.getMethod("start", Runnable.class);
+            porTarea = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NOMBRAR = nombrar;
+        INICIAR = iniciar;
+        POR_TAREA = porTarea;
+    }
+
+    private Hilos() {}
+
+    public static boolean virtualesDisponibles() {
+        return OF_VIRTUAL != null;
+    }
+
+    /** Arranca la tarea en un hilo virtual si se pide y hay; si no, en uno daemon. */
+    public static Thread iniciar(String nombre, boolean virtual, Runnable tarea) {
+        if (virtual && OF_VIRTUAL != null) {
+            try {
+                Object constructor = NOMBRAR.invoke(OF_VIRTUAL.invoke(null), nombre);
+                return (Thread) INICIAR.invoke(constructor, tarea);
+            } catch (ReflectiveOperationException e) {
+                // Se sigue con un hilo de plataforma
+            }
+        }
+        Thread hilo = new Thread(tarea, nombre);
+        hilo.setDaemon(true);
+        hilo.start();
+        return hilo;
+    }
+
+    /** Un hilo por tarea: virtuales si se pide y hay, de plataforma reutilizados si no. */
+    public static ExecutorService porTarea(String nombre, boolean virtual) {
+        if (virtual && POR_TAREA != null) {
+            try {
+                return (ExecutorService) POR_TAREA.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // Se sigue con hilos de plataforma
+            }
+        }
+        return Executors.newCachedThreadPool(r -> {
+            Thread hilo = new Thread(r, nombre);
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+}
@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Registro de metricas de un programa: contadores, medidores e histogramas.
+ *
+ * Registrar un valor no asigna memoria ni toma candados: los contadores son
+ * LongAdder y los histogramas cubetas atomicas. Los histogramas son
+ * log-lineales como HdrHistogram, con 64 cubetas por potencia de dos
+ * (error relativo menor del 1,6 %) y sin limite de rango.
+ *
+ * Con -D<prefijo>.metricas.puerto=N las metricas se sirven en texto (formato
+ * de Prometheus) en http://localhost:N/metricas; los contadores llevan
+ * ademas su tasa por segundo desde la consulta anterior.
+ */
+public final class Metricas {
+
+    private interface Metrica {
+        void exportar(StringBuilder salida);
+    }
+
+    public static final class Contador implements Metrica {
+        private final String nombre;
+        private final String ayuda;
+        private final LongAdder valor = new LongAdder();
+        private final LongSupplier fuente;      // contador que ya lleva el programa, o null
+        private long anterior = 0;
+        private long anteriorNanos = System.nanoTime();
+
+        private Contador(String nombre, String ayuda, LongSupplier fuente) {
+            this.nombre = nombre;
+            this.ayuda = ayuda;
+            this.fuente = fuente;
+        }
+
+        public void incrementar() {
+            valor.increment();
+        }
+
+        public void sumar(long n) {
+            valor.add(n);
+        }
+
+        public long valor() {
+            return fuente != null ? fuente.getAsLong() : valor.sum();
+        }
+
+        // Solo el hilo que exporta
+        @Override
+        public void exportar(StringBuilder salida) {
+            long actual = valor();
+            long ahora = System.nanoTime();
+            double tasa = (actual - anterior) * 1e9 / Math.max(1, ahora - anteriorNanos);
+            anterior = actual;
+            anteriorNanos = ahora;
+            cabecera(salida, nombre, ayuda, "counter").append(nombre).append(' ').append(actual).append('\n');
+            cabecera(salida, nombre + "_por_segundo", ayuda + " (por segundo)", "gauge")
+                .append(nombre).append("_por_segundo ").append(String.format(Locale.ROOT, "%.1f", tasa)).append('\n');
+        }
+    }
+
+    private static final class Medidor implements Metrica {
+        private final String nombre;
+        private final String ayuda;
+        private final LongSupplier fuente;
+
+        Medidor(String nombre, String ayuda, LongSupplier fuente) {
+            this.nombre = nombre;
+            this.ayuda = ayuda;
+            this.fuente = fuente;
+        }
+
+        @Override
+        public void exportar(StringBuilder salida) {
+            cabecera(salida, nombre, ayuda, "gauge").append(nombre).append(' ').append(fuente.getAsLong()).append('\n');
+        }
+    }
+
+    public static final class Histograma implements Metrica {
+        private static final int BITS = 6;                      // 64 cubetas por potencia de dos
+        private static final int LINEAL = 2 << BITS;            // 0..127 exactos
+        private static final int CUBETAS = LINEAL + ((63 - BITS - 1) << BITS);
+        private static final double[] CUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+        private final String nombre;
+        private final String ayuda;
+        private final AtomicLongArray cubetas = new AtomicLongArray(CUBETAS);
+        private final LongAdder cuenta = new LongAdder();
+        private final LongAdder suma = new LongAdder();
+        private final AtomicLong maximo = new AtomicLong();
+
+        private Histograma(String nombre, String ayuda) {
+            this.nombre = nombre;
+            this.ayuda = ayuda;
+        }
+
+        public void registrar(long valor) {
+            if (valor < 0) {
+                valor = 0;
+            }
+            cubetas.incrementAndGet(indice(valor));
+            cuenta.increment();
+            suma.add(valor);
+            long m;
+            while (valor > (m = maximo.get()) && !maximo.compareAndSet(m, valor)) {
+                // Otro hilo subio el maximo a la vez: se vuelve a comparar
+            }
+        }
+
+        static int indice(long valor) {
+            if (valor < LINEAL) {
+                return (int) valor;
+            }
+            int exponente = 63 - Long.numberOfLeadingZeros(valor);
+            int mantisa = (int) (valor >>> (exponente - BITS)) - (1 << BITS);
+            return LINEAL + ((exponente - BITS - 1) << BITS) + mantisa;
+        }
+
+        // Mayor valor que cae en la cubeta i
+        static long limite(int i) {
+            if (i < LINEAL) {
+                return i;
+            }
+            int k = i - LINEAL;
+            int exponente = (k >> BITS) + BITS + 1;
+            long mantisa = (k & ((1 << BITS) - 1)) + (1 << BITS);
+            return ((mantisa + 1) << (exponente - BITS)) - 1;
+        }
+
+        /** Valor por debajo del cual queda la fraccion q de las muestras. */
+        public long percentil(double q) {
+            long total = 0;
+            for (int i = 0; i < CUBETAS; i++) {
+                total += cubetas.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long objetivo = Math.max(1, (long) Math.ceil(q * total));
+            long acumulado = 0;
+            for (int i = 0; i < CUBETAS; i++) {
+                acumulado += cubetas.get(i);
+                if (acumulado >= objetivo) {
+                    return Math.min(limite(i), maximo.get());
+                }
+            }
+            return maximo.get();
+        }
+
+        public long cuenta() {
+            return cuenta.sum();
+        }
+
+        public String resumen() {
+            return nombre + ": n=" + cuenta() + " p50=" + percentil(0.5) + " p99=" + percentil(0.99)
+                + " max=" + maximo.get();
+        }
+
+        @Override
+        public void exportar(StringBuilder salida) {
+            cabecera(salida, nombre, ayuda, "summary");
+            for (double q : CUANTILES) {
+                salida.append(nombre).append("{quantile=\"").append(q).append("\"} ").append(percentil(q)).append('\n');
+            }
+            salida.append(nombre).append("_sum ").append(suma.sum()).append('\n');
+            salida.append(nombre).append("_count ").append(cuenta.sum()).append('\n');
+            cabecera(salida, nombre + "_max", ayuda + " (maximo)", "gauge")
+                .append(nombre).append("_max ").append(maximo.get()).append('\n');
+        }
+    }
+
+    private final String prefijo;
+    private final List<Metrica> metricas = new ArrayList<>();
+    private HttpServer servidor;
+
+    public Metricas(String prefijo) {
+        this.prefijo = prefijo;
+    }
+
+    public synchronized Contador contador(String nombre, String ayuda) {
+        Contador c = new Contador(prefijo + "_" + nombre, ayuda, null);
+        metricas.add(c);
+        return c;
+    }
+
+    // Contador que ya lleva el programa (campos volatile de Servidor, por ejemplo)
+    public synchronized void contador(String nombre, String ayuda, LongSupplier fuente) {
+        metricas.add(new Contador(prefijo + "_" + nombre, ayuda, fuente));
+    }
+
+    public synchronized void medidor(String nombre, String ayuda, LongSupplier fuente) {
+        metricas.add(new Medidor(prefijo + "_" + nombre, ayuda, fuente));
+    }
+
+    public synchronized Histograma histograma(String nombre, String ayuda) {
+        Histograma h = new Histograma(prefijo + "_" + nombre, ayuda);
+        metricas.add(h);
+        return h;
+    }
+
+    public synchronized String exportar() {
+        StringBuilder salida = new StringBuilder(4096);
+        for (Metrica m : metricas) {
+            m.exportar(salida);
+        }
+        return salida.toString();
+    }
+
+    /** Sirve /metricas en localhost si hay -D<prefijo>.metricas.puerto. */
+    public void publicar() {
+        int puerto = Integer.getInteger(prefijo + ".metricas.puerto", 0);
+        if (puerto <= 0) {
+            return;
+        }
+        try {
+            servidor = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), puerto), 0);
+            servidor.createContext("/metricas", intercambio -> {
+                byte[] cuerpo = exportar().getBytes(StandardCharsets.UTF_8);
+                intercambio.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                intercambio.sendResponseHeaders(200, cuerpo.length);
+                try (OutputStream salida = intercambio.getResponseBody()) {
+                    salida.write(cuerpo);
+                }
+            });
+            servidor.setExecutor(Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, prefijo + "-metricas");
+                t.setDaemon(true);
+                return t;
+            }));
+            servidor.start();
+            System.out.println("Metricas en http://localhost:" + puerto + "/metricas");
+        } catch (IOException e) {
+            System.err.println("No se pudieron publicar las metricas en el puerto " + puerto + ": " + e.getMessage());
+        }
+    }
+
+    public void cerrar() {
+        if (servidor != null) {
+            servidor.stop(0);
+        }
+    }
+
+    private static StringBuilder cabecera(StringBuilder salida, String nombre, String ayuda, String tipo) {
+        return salida.append("# HELP ").append(nombre).append(' ').append(ayuda).append('\n')
+            .append("# TYPE ").append(nombre).append(' ').append(tipo).append('\n');
+    }
+}
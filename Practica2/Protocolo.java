@@ -0,0 +1,449 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codec binario compartido por Servidor y Cliente.
+ *
+ * Formato de cada datagrama (big-endian, cabecera fija de 15 bytes):
+ *   magic(2) version(1) flags(1) seq(4) ack(4) opcode(1) longitud(2) payload(longitud)
+ *
+ * Si flags lleva FLAG_SACK, tras la cabecera van 8 bytes con el mapa de
+ * confirmacion selectiva: el bit i indica que el servidor ya tiene guardada
+ * la secuencia ack + 1 + i. El payload va despues del mapa.
+ *
+ * Una trama OP_LOTE agrupa varios comandos: su payload es una lista de
+ * entradas seq(4) opcode(1) longitud(2) datos(longitud) y su seq es el de la
+ * primera entrada. El servidor responde al lote con un unico ACK con
+ * FLAG_LOTE, cuyo payload es una lista de respuestas seq(4) longitud(2)
+ * texto(longitud), una por comando ejecutado que quepa en el datagrama.
+ *
+ * Una trama OP_AUDIO lleva un fragmento del flujo de audio al estilo RTP: su
+ * seq numera los paquetes del flujo y el payload empieza con una cabecera de
+ * medios marca(4) flujo(4) tasa(4) canales(1) presentacion(8) codec(1)
+ * seguida del audio codificado (CodecAudio). La marca de tiempo cuenta
+ * muestras (frames) desde el inicio del flujo; flujo identifica la fuente
+ * como el SSRC de RTP. presentacion es el instante, en nanosegundos del reloj
+ * de pared del servidor, en que todos los oyentes deben reproducir la primera
+ * muestra. El codec va justo antes de los datos para que viaje con ellos por
+ * el buffer de jitter.
+ *
+ * Con FEC, tras cada grupo de n tramas OP_AUDIO sale una OP_PARIDAD cuyo seq
+ * es el de la primera trama del grupo y cuyo payload es n(1)
+ * longitudes(2) paridad: el XOR de las longitudes de payload del grupo y el
+ * XOR de sus payloads rellenos con ceros. Con ella un receptor reconstruye
+ * cualquier trama perdida del grupo si recibio las demas.
+ *
+ * Una trama OP_RELOJ es un intercambio al estilo NTP fuera de la ventana de
+ * comandos: el cliente envia t1(8) con su reloj y el servidor responde con
+ * t1(8) t2(8) t3(8), los instantes de recepcion y envio segun el suyo.
+ *
+ * Si llega un comando con seq distinto de 0 de un cliente sin sesion (por
+ * ejemplo porque expiro por inactividad), el servidor no lo ejecuta: responde
+ * un OP_ACK con FLAG_SESION y ack = seq del comando, y el cliente abre una
+ * sesion nueva con CONNECT y reenvia lo que tenga sin confirmar. Un cliente
+ * del formato de texto no sabe reconectar: su sesion se reabre en esa seq.
+ *
+ * Se codifica y decodifica sobre buffers reutilizables, sin Strings intermedios.
+ * Con -Dprotocolo.texto=true tambien se acepta el formato anterior "seq:ack:comando";
+ * a esos clientes el servidor les responde "0:ack:ACK:respuesta" (codificarAckTexto).
+ */
+public final class Protocolo {
+    public static final short MAGIC = 0x5232; // "R2"
+    public static final byte VERSION = 1;
+    public static final int CABECERA = 15;
+    public static final int MAX_PAYLOAD = 1024 - CABECERA;
+    public static final int MAX_DATAGRAMA = CABECERA + MAX_PAYLOAD;
+
+    // Flags
+    public static final byte FLAG_TEXTO = 0x01; // la trama llego en el formato de texto anterior
+    public static final byte FLAG_SACK = 0x02;  // la cabecera va seguida del mapa SACK
+    public static final byte FLAG_SESION = 0x04; // ACK sin sesion: el cliente debe volver a conectar
+    public static final byte FLAG_LOTE = 0x08;   // ACK de un lote: el payload son respuestas con su seq
+    public static final int CABECERA_RESPUESTA = 6;
+    public static final int LONGITUD_SACK = 8;
+
+    // Opcodes
+    public static final byte OP_TEXTO = 0;      // comando libre, el texto viaja en el payload
+    public static final byte OP_CONNECT = 1;
+    public static final byte OP_PLAY = 2;
+    public static final byte OP_PAUSE = 3;
+    public static final byte OP_STOP = 4;
+    public static final byte OP_RESTART = 5;
+    public static final byte OP_STATUS = 6;
+    public static final byte OP_MUTE = 7;
+    public static final byte OP_AUDIO = 0x10;
+    public static final byte OP_PARIDAD = 0x11;
+    public static final byte OP_LOTE = 0x20;
+    public static final byte OP_RELOJ = 0x30;
+    public static final byte OP_ACK = 0x40;
+
+    public static final int CABECERA_ENTRADA = 7;
+    public static final int CABECERA_AUDIO = 22;
+    public static final int LONGITUD_RELOJ = 24;
+    public static final int CABECERA_PARIDAD = 3;
+    // Payload maximo de una trama protegida por FEC: su paridad debe caber en un datagrama
+    public static final int MAX_PAYLOAD_PROTEGIDO = MAX_PAYLOAD - CABECERA_PARIDAD;
+
+    private static final String[] NOMBRES = {
+        "", "CONNECT", "PLAY", "PAUSE", "STOP", "RESTART", "STATUS", "MUTE"
+    };
+    private static final byte[][] NOMBRES_ASCII = new byte[NOMBRES.length][];
+    static {
+        for (int i = 0; i < NOMBRES.length; i++) {
+            NOMBRES_ASCII[i] = NOMBRES[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static final boolean COMPATIBILIDAD_TEXTO = Boolean.getBoolean("protocolo.texto");
+
+    private Protocolo() {}
+
+    /** Trama decodificada; se reutiliza entre datagramas para no asignar memoria. */
+    public static final class Trama {
+        private byte version;
+        private byte flags;
+        private int sequenceNumber;
+        private int ackNumber;
+        private byte opcode;
+        private long sack;
+        private final byte[] payload = new byte[MAX_PAYLOAD];
+        private int longitud;
+
+        public byte getVersion() { return version; }
+        public byte getFlags() { return flags; }
+        public int getSequenceNumber() { return sequenceNumber; }
+        public int getAckNumber() { return ackNumber; }
+        public byte getOpcode() { return opcode; }
+        public long getSack() { return sack; }
+        public byte[] getPayload() { return payload; }
+        public int getLongitud() { return longitud; }
+
+        // Solo para diagnostico o rutas poco frecuentes: asigna un String
+        public String payloadComoTexto() {
+            return new String(payload, 0, longitud, StandardCharsets.UTF_8);
+        }
+    }
+
+    public static boolean compatibilidadTexto() {
+        return COMPATIBILIDAD_TEXTO;
+    }
+
+    // Devuelve el opcode de un comando escrito por el usuario (OP_TEXTO si no se reconoce)
+    public static byte opcodeDe(String comando) {
+        for (int i = 1; i < NOMBRES.length; i++) {
+            if (NOMBRES[i].equalsIgnoreCase(comando)) {
+                return (byte) i;
+            }
+        }
+        return OP_TEXTO;
+    }
+
+    // Nombre constante del opcode; no asigna memoria
+    public static String nombre(byte opcode) {
+        if (opcode > 0 && opcode < NOMBRES.length) {
+            return NOMBRES[opcode];
+        }
+        switch (opcode) {
+            case OP_ACK: return "ACK";
+            case OP_LOTE: return "LOTE";
+            case OP_AUDIO: return "AUDIO";
+            case OP_PARIDAD: return "PARIDAD";
+            case OP_RELOJ: return "RELOJ";
+            default: return "";
+        }
+    }
+
+    /**
+     * Escribe una trama completa a partir de la posicion actual de destino.
+     * El llamador es responsable de hacer flip() antes de enviar.
+     */
+    public static void codificar(ByteBuffer destino, int seq, int ack, byte opcode,
+                                 byte[] payload, int offset, int longitud) {
+        destino.putShort(MAGIC);
+        destino.put(VERSION);
+        destino.put((byte) 0);
+        destino.putInt(seq);
+        destino.putInt(ack);
+        destino.put(opcode);
+        destino.putShort((short) longitud);
+        if (longitud > 0) {
+            destino.put(payload, offset, longitud);
+        }
+    }
+
+    public static void codificar(ByteBuffer destino, int seq, int ack, byte opcode) {
+        codificar(destino, seq, ack, opcode, null, 0, 0);
+    }
+
+    // ACK acumulativo con mapa de confirmacion selectiva (se omite si sack == 0)
+    public static void codificarAck(ByteBuffer destino, int ventana, int ack, long sack,
+                                    byte[] payload, int offset, int longitud) {
+        if (sack == 0) {
+            codificar(destino, ventana, ack, OP_ACK, payload, offset, longitud);
+            return;
+        }
+        longitud = Math.min(longitud, MAX_PAYLOAD - LONGITUD_SACK);
+        destino.putShort(MAGIC);
+        destino.put(VERSION);
+        destino.put(FLAG_SACK);
+        destino.putInt(ventana);
+        destino.putInt(ack);
+        destino.put(OP_ACK);
+        destino.putShort((short) longitud);
+        destino.putLong(sack);
+        if (longitud > 0) {
+            destino.put(payload, offset, longitud);
+        }
+    }
+
+    // ACK en el formato de texto anterior "0:ack:ACK:respuesta", para los clientes
+    // que enviaron el comando en ese formato; escribe los digitos sin asignar memoria
+    public static void codificarAckTexto(ByteBuffer destino, int ack, byte[] payload, int offset, int longitud) {
+        destino.put((byte) '0').put((byte) ':');
+        long valor = ack;
+        if (valor < 0) {
+            destino.put((byte) '-');
+            valor = -valor;
+        }
+        long divisor = 1;
+        while (divisor * 10 <= valor) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            destino.put((byte) ('0' + valor / divisor % 10));
+        }
+        destino.put((byte) ':').put((byte) 'A').put((byte) 'C').put((byte) 'K').put((byte) ':');
+        longitud = Math.min(longitud, destino.remaining());
+        if (longitud > 0) {
+            destino.put(payload, offset, longitud);
+        }
+    }
+
+    // ACK de sesion desconocida para el comando seq; no lleva ventana ni SACK
+    public static void codificarSesionDesconocida(ByteBuffer destino, int seq, byte[] payload, int offset, int longitud) {
+        int inicio = destino.position();
+        codificar(destino, 0, seq, OP_ACK, payload, offset, longitud);
+        destino.put(inicio + 3, FLAG_SESION);
+    }
+
+    // Agrega al payload del ACK de un lote la respuesta del comando seq; false si no cabe
+    public static boolean agregarRespuesta(ByteBuffer destino, int seq, byte[] texto, int offset, int longitud) {
+        if (destino.remaining() < CABECERA_RESPUESTA + longitud) {
+            return false;
+        }
+        destino.putInt(seq);
+        destino.putShort((short) longitud);
+        destino.put(texto, offset, longitud);
+        return true;
+    }
+
+    // Escribe la cabecera de un lote vacio; las entradas se agregan despues
+    public static void iniciarLote(ByteBuffer destino, int ack) {
+        codificar(destino, 0, ack, OP_LOTE);
+    }
+
+    /**
+     * Agrega una entrada al lote que empieza en inicio. Devuelve false, sin
+     * tocar el buffer, si la entrada no cabe en un datagrama.
+     */
+    public static boolean agregarAlLote(ByteBuffer destino, int inicio, int seq, byte opcode,
+                                        byte[] datos, int offset, int longitud) {
+        if (destino.position() + CABECERA_ENTRADA + longitud > inicio + MAX_DATAGRAMA) {
+            return false;
+        }
+        int payload = destino.getShort(inicio + 13) & 0xFFFF;
+        if (payload == 0) {
+            destino.putInt(inicio + 4, seq);
+        }
+        destino.putInt(seq);
+        destino.put(opcode);
+        destino.putShort((short) longitud);
+        if (longitud > 0) {
+            destino.put(datos, offset, longitud);
+        }
+        destino.putShort(inicio + 13, (short) (payload + CABECERA_ENTRADA + longitud));
+        return true;
+    }
+
+    // Fragmento de audio: cabecera de medios y audio codificado en el payload
+    public static void codificarAudio(ByteBuffer destino, int seq, int marca, int flujo, int tasa,
+                                      int canales, long presentacion, int codec,
+                                      byte[] audio, int offset, int longitud) {
+        longitud = Math.min(longitud, MAX_PAYLOAD - CABECERA_AUDIO);
+        destino.putShort(MAGIC);
+        destino.put(VERSION);
+        destino.put((byte) 0);
+        destino.putInt(seq);
+        destino.putInt(0);
+        destino.put(OP_AUDIO);
+        destino.putShort((short) (CABECERA_AUDIO + longitud));
+        destino.putInt(marca);
+        destino.putInt(flujo);
+        destino.putInt(tasa);
+        destino.put((byte) canales);
+        destino.putLong(presentacion);
+        destino.put((byte) codec);
+        if (longitud > 0) {
+            destino.put(audio, offset, longitud);
+        }
+    }
+
+    // Paridad XOR de las n tramas que empiezan en primerSeq
+    public static void codificarParidad(ByteBuffer destino, int primerSeq, int n, int longitudes,
+                                        byte[] paridad, int longitud) {
+        longitud = Math.min(longitud, MAX_PAYLOAD_PROTEGIDO);
+        destino.putShort(MAGIC);
+        destino.put(VERSION);
+        destino.put((byte) 0);
+        destino.putInt(primerSeq);
+        destino.putInt(0);
+        destino.put(OP_PARIDAD);
+        destino.putShort((short) (CABECERA_PARIDAD + longitud));
+        destino.put((byte) n);
+        destino.putShort((short) longitudes);
+        destino.put(paridad, 0, longitud);
+    }
+
+    // Intercambio de reloj: el cliente solo rellena t1, el servidor responde con los tres
+    public static void codificarReloj(ByteBuffer destino, long t1, long t2, long t3) {
+        destino.putShort(MAGIC);
+        destino.put(VERSION);
+        destino.put((byte) 0);
+        destino.putInt(0);
+        destino.putInt(0);
+        destino.put(OP_RELOJ);
+        destino.putShort((short) LONGITUD_RELOJ);
+        destino.putLong(t1);
+        destino.putLong(t2);
+        destino.putLong(t3);
+    }
+
+    // Lectura big-endian sobre el payload de una trama
+    public static int entero(byte[] b, int i) {
+        return ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16) | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+    }
+
+    public static long largo(byte[] b, int i) {
+        return ((long) entero(b, i) << 32) | (entero(b, i + 4) & 0xFFFFFFFFL);
+    }
+
+    public static int corto(byte[] b, int i) {
+        return ((b[i] & 0xFF) << 8) | (b[i + 1] & 0xFF);
+    }
+
+    /**
+     * Decodifica la trama entre position y limit de origen sobre destino.
+     * Devuelve false si el datagrama no es valido.
+     */
+    public static boolean decodificar(ByteBuffer origen, Trama destino) {
+        int inicio = origen.position();
+        int disponibles = origen.remaining();
+
+        if (disponibles >= CABECERA && origen.getShort(inicio) == MAGIC) {
+            byte version = origen.get(inicio + 2);
+            if (version != VERSION) {
+                return false;
+            }
+            byte flags = origen.get(inicio + 3);
+            int extension = (flags & FLAG_SACK) != 0 ? LONGITUD_SACK : 0;
+            int longitud = origen.getShort(inicio + 13) & 0xFFFF;
+            if (longitud > MAX_PAYLOAD || CABECERA + extension + longitud > disponibles) {
+                return false;
+            }
+            destino.version = version;
+            destino.flags = flags;
+            destino.sequenceNumber = origen.getInt(inicio + 4);
+            destino.ackNumber = origen.getInt(inicio + 8);
+            destino.opcode = origen.get(inicio + 12);
+            destino.sack = extension > 0 ? origen.getLong(inicio + CABECERA) : 0;
+            destino.longitud = longitud;
+            origen.position(inicio + CABECERA + extension);
+            origen.get(destino.payload, 0, longitud);
+            return true;
+        }
+
+        return COMPATIBILIDAD_TEXTO && decodificarTexto(origen, destino);
+    }
+
+    // Formato anterior "seq:ack:comando", interpretado byte a byte
+    private static boolean decodificarTexto(ByteBuffer origen, Trama destino) {
+        int i = origen.position();
+        int fin = origen.limit();
+
+        // Equivalente al trim() del formato anterior
+        while (i < fin && origen.get(i) <= ' ') i++;
+        while (fin > i && origen.get(fin - 1) <= ' ') fin--;
+
+        long seq = 0;
+        long ack = 0;
+        int campo = 0;
+        boolean negativo = false;
+        int digitos = 0;
+
+        while (i < fin && campo < 2) {
+            byte b = origen.get(i++);
+            if (b == ':') {
+                if (digitos == 0) return false;
+                if (negativo) {
+                    if (campo == 0) seq = -seq; else ack = -ack;
+                }
+                campo++;
+                negativo = false;
+                digitos = 0;
+            } else if (b == '-' && digitos == 0 && !negativo) {
+                negativo = true;
+            } else if (b >= '0' && b <= '9' && digitos < 10) {
+                if (campo == 0) seq = seq * 10 + (b - '0'); else ack = ack * 10 + (b - '0');
+                digitos++;
+            } else {
+                return false;
+            }
+        }
+        if (campo < 2 || seq > Integer.MAX_VALUE || ack > Integer.MAX_VALUE) {
+            return false;
+        }
+
+        int longitud = fin - i;
+        if (longitud > MAX_PAYLOAD) {
+            return false;
+        }
+
+        destino.version = 0;
+        destino.flags = FLAG_TEXTO;
+        destino.sequenceNumber = (int) seq;
+        destino.ackNumber = (int) ack;
+        destino.sack = 0;
+
+        // "ACK:respuesta" es la confirmacion del servidor en el formato anterior
+        if (longitud >= 4 && origen.get(i) == 'A' && origen.get(i + 1) == 'C'
+                && origen.get(i + 2) == 'K' && origen.get(i + 3) == ':') {
+            destino.opcode = OP_ACK;
+            i += 4;
+            longitud -= 4;
+        } else {
+            destino.opcode = opcodeAscii(origen, i, longitud);
+        }
+
+        destino.longitud = destino.opcode == OP_TEXTO || destino.opcode == OP_ACK ? longitud : 0;
+        for (int k = 0; k < destino.longitud; k++) {
+            destino.payload[k] = origen.get(i + k);
+        }
+        origen.position(origen.limit());
+        return true;
+    }
+
+    private static byte opcodeAscii(ByteBuffer origen, int inicio, int longitud) {
+        for (int op = 1; op < NOMBRES_ASCII.length; op++) {
+            byte[] nombre = NOMBRES_ASCII[op];
+            if (nombre.length != longitud) continue;
+            boolean igual = true;
+            for (int k = 0; k < longitud && igual; k++) {
+                int c = origen.get(inicio + k);
+                if (c >= 'a' && c <= 'z') c -= 32;
+                igual = c == nombre[k];
+            }
+            if (igual) return (byte) op;
+        }
+        return OP_TEXTO;
+    }
+}
@@ -0,0 +1,316 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Recibe el flujo de audio del grupo multicast y lo reproduce por una
+ * SourceDataLine a traves de un BufferJitter.
+ *
+ * Un hilo recibe tramas OP_AUDIO y las guarda en el buffer; otro saca
+ * paquetes en orden y los escribe en la linea, cuyo buffer interno es de
+ * unas decenas de milisegundos para que la reproduccion empiece enseguida.
+ * El buffer guarda los paquetes tal como llegan, con su byte de codec
+ * delante, y se decodifican a PCM al reproducirlos. La memoria es fija: la
+ * del buffer de jitter y un par de arreglos de trabajo. Si el flujo trae
+ * paridades FEC, las tramas perdidas se reconstruyen antes de llegar al
+ * buffer. Un paquete perdido se oculta repitiendo el anterior con la mitad
+ * de volumen cada vez; sin anterior se reproduce silencio.
+ *
+ * Con un RelojMedios sincronizado cada paquete se reproduce en su instante
+ * de presentacion, pasado al reloj local: el primero espera a su instante y
+ * despues se compara lo que ya esta en la linea con lo que deberia sonar. Un
+ * error grande se corrige de golpe (esperando o saltando muestras) y uno
+ * pequeño, la deriva entre el reloj del servidor y el de la tarjeta, quitando
+ * o repitiendo un frame por paquete hasta volver a menos de AJUSTE_NANOS.
+ *
+ * Sin dispositivo de audio (o con -Dcliente.audio.salida=false) el flujo se
+ * consume igual, al ritmo de su tasa, para que las estadisticas sigan vivas.
+ */
+public class ReceptorAudio {
+    private static final boolean SALIDA = Boolean.parseBoolean(System.getProperty("cliente.audio.salida", "true"));
+    // -Dcliente.audio.linea.ms: audio que guarda la linea de salida ademas del buffer de jitter
+    private static final int MS_EN_LINEA = Integer.getInteger("cliente.audio.linea.ms", 40);
+    // Errores de sincronia: por debajo de AJUSTE no se toca, por encima de SALTO se corrige de golpe
+    private static final long AJUSTE_NANOS = 1_000_000L;
+    private static final long SALTO_NANOS = 10_000_000L;
+    // Posicion del byte de codec en el payload: es el ultimo de la cabecera de medios
+    private static final int CODEC = Protocolo.CABECERA_AUDIO - 1;
+
+    private final MulticastSocket socket;
+    private final BufferJitter buffer;
+    private final RecuperadorFEC fec = new RecuperadorFEC();   // solo el hilo de red
+    private final RelojMedios reloj;                           // null: sin sincronia
+    private final Thread hiloRed;
+    private final Thread hiloSalida;
+
+    // Formato del flujo actual; lo cambia el hilo de red y lo aplica el de salida
+    private volatile AudioFormat formato;
+    private volatile int flujo;
+    private volatile boolean hayFlujo = false;
+    private volatile long ocultados = 0;
+    private volatile long errorSincronia = Long.MIN_VALUE;       // nanosegundos, > 0 = tarde
+    private volatile long framesAjustados = 0;
+
+    public ReceptorAudio(InetAddress grupo, int puerto, NetworkInterface interfaz,
+                         int capacidad, int profundidadMinima, int profundidadMaxima,
+                         RelojMedios reloj) throws IOException {
+        this.reloj = reloj;
+        buffer = new BufferJitter(capacidad, profundidadMinima, profundidadMaxima);
+        socket = new MulticastSocket(puerto);
+        if (interfaz != null) {
+            socket.setNetworkInterface(interfaz);
+        }
+        // Sin interfaz vale la del sistema para el grupo
+        socket.joinGroup(new InetSocketAddress(grupo, puerto), interfaz);
+
+        hiloRed = new Thread(this::recibir, "cliente-audio-red");
+        hiloRed.setDaemon(true);
+        hiloSalida = new Thread(this::reproducir, "cliente-audio-salida");
+        hiloSalida.setDaemon(true);
+        hiloRed.start();
+        hiloSalida.start();
+    }
+
+    public void cerrar() {
+        socket.close();
+        hiloSalida.interrupt();
+    }
+
+    public String resumen() {
+        AudioFormat f = formato;
+        return "Flujo: " + (hayFlujo ? "recibiendo" : "sin flujo")
+            + (f != null ? " (" + (int) f.getSampleRate() + " Hz, " + f.getChannels() + " canales)" : "")
+            + " | " + buffer.resumen() + " | ocultados: " + ocultados + " | " + fec.resumen()
+            + (errorSincronia != Long.MIN_VALUE
+                ? String.format(" | sincronia: %.2f ms, %d frames ajustados", errorSincronia / 1e6, framesAjustados)
+                : "");
+    }
+
+    private void recibir() {
+        byte[] datos = new byte[Protocolo.MAX_DATAGRAMA];
+        ByteBuffer vista = ByteBuffer.wrap(datos);
+        DatagramPacket paquete = new DatagramPacket(datos, datos.length);
+        Protocolo.Trama trama = new Protocolo.Trama();
+        try {
+            while (true) {
+                paquete.setLength(datos.length);
+                socket.receive(paquete);
+                long llegada = System.nanoTime();
+
+                vista.limit(paquete.getLength()).position(0);
+                if (!Protocolo.decodificar(vista, trama)) {
+                    continue;
+                }
+                int seq = trama.getSequenceNumber();
+                if (trama.getOpcode() == Protocolo.OP_AUDIO) {
+                    if (entregar(seq, trama.getPayload(), trama.getLongitud(), llegada)
+                            && fec.datos(seq, trama.getPayload(), 0, trama.getLongitud())) {
+                        entregar(fec.seqRecuperado(), fec.recuperado(), fec.longitudRecuperado(), llegada);
+                    }
+                } else if (trama.getOpcode() == Protocolo.OP_PARIDAD && hayFlujo) {
+                    if (fec.paridad(seq, trama.getPayload(), 0, trama.getLongitud())) {
+                        entregar(fec.seqRecuperado(), fec.recuperado(), fec.longitudRecuperado(), llegada);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                System.err.println("Error recibiendo audio: " + e.getMessage());
+            }
+        }
+    }
+
+    // Pasa al buffer de jitter el payload de una trama OP_AUDIO (recibida o recuperada)
+    private boolean entregar(int seq, byte[] p, int longitud, long llegada) {
+        if (longitud < Protocolo.CABECERA_AUDIO) {
+            return false;
+        }
+        int marca = Protocolo.entero(p, 0);
+        int id = Protocolo.entero(p, 4);
+        int tasa = Protocolo.entero(p, 8);
+        int canales = p[12];
+        long presentacion = Protocolo.largo(p, 13);
+        int codec = p[CODEC];
+        if (tasa <= 0 || canales <= 0 || codec < CodecAudio.PCM16 || codec > CodecAudio.ADPCM
+                || (codec == CodecAudio.ADPCM && canales > 2)) {
+            return false;
+        }
+
+        if (!hayFlujo || id != flujo || !mismoFormato(tasa, canales)) {
+            // Otra fuente u otro formato: se empieza de cero
+            buffer.vaciar();
+            fec.vaciar();
+            formato = new AudioFormat(tasa, 16, canales, true, false);
+            flujo = id;
+            hayFlujo = true;
+        }
+        buffer.guardar(seq, marca, tasa, presentacion, p, CODEC, longitud - CODEC, llegada);
+        return true;
+    }
+
+    private boolean mismoFormato(int tasa, int canales) {
+        AudioFormat f = formato;
+        return f != null && (int) f.getSampleRate() == tasa && f.getChannels() == canales;
+    }
+
+    private void reproducir() {
+        byte[] paquete = new byte[Protocolo.MAX_PAYLOAD];
+        byte[] pcm = new byte[4 * Protocolo.MAX_PAYLOAD];       // hasta 4:1 con ADPCM
+        byte[] anterior = new byte[pcm.length];
+        int longitudAnterior = 0;
+        int perdidasSeguidas = 0;
+        SourceDataLine linea = null;
+        AudioFormat formatoLinea = null;
+        boolean sinDispositivo = !SALIDA;
+        boolean sincronizado = false;
+        long relojPropio = 0;
+
+        try {
+            while (true) {
+                int n = buffer.siguiente(paquete, 20_000_000L);
+                if (n == 0) {
+                    continue;
+                }
+
+                AudioFormat f = formato;
+                if (n > 0) {
+                    n = CodecAudio.decodificar(paquete[0], paquete, 1, n - 1, f.getChannels(), pcm);
+                }
+                if (f != formatoLinea) {
+                    if (linea != null) {
+                        linea.close();
+                        linea = null;
+                    }
+                    formatoLinea = f;
+                    longitudAnterior = 0;
+                    if (!sinDispositivo) {
+                        try {
+                            linea = AudioSystem.getSourceDataLine(f);
+                            linea.open(f, f.getFrameSize() * (int) (f.getSampleRate() * MS_EN_LINEA / 1000));
+                            linea.start();
+                        } catch (LineUnavailableException | IllegalArgumentException e) {
+                            System.err.println("Sin salida de audio (" + e.getMessage() + "), el flujo se descarta");
+                            sinDispositivo = true;
+                            linea = null;
+                        }
+                    }
+                }
+
+                long presentacion = buffer.presentacion();
+                boolean sincronizar = reloj != null && reloj.sincronizado() && presentacion != 0;
+                if (sincronizar != sincronizado) {
+                    // Con sincronia la latencia la fija el servidor y el buffer no recorta
+                    buffer.setLatenciaFija(sincronizar);
+                    sincronizado = sincronizar;
+                }
+
+                if (n == BufferJitter.PERDIDO) {
+                    // Ocultacion: el paquete anterior atenuado, o silencio
+                    perdidasSeguidas++;
+                    ocultados++;
+                    n = longitudAnterior > 0 ? longitudAnterior : f.getFrameSize() * (int) (f.getSampleRate() / 50);
+                    n = Math.min(n, pcm.length);
+                    if (longitudAnterior > 0) {
+                        atenuar(anterior, pcm, n, perdidasSeguidas);
+                    } else {
+                        Arrays.fill(pcm, 0, n, (byte) 0);
+                    }
+                } else {
+                    perdidasSeguidas = 0;
+                    System.arraycopy(pcm, 0, anterior, 0, n);
+                    longitudAnterior = n;
+                }
+
+                int frame = f.getFrameSize();
+                int desde = 0;
+                boolean repetir = false;
+                if (sincronizar) {
+                    long objetivo = reloj.aLocal(presentacion);
+                    long enLinea = linea != null
+                        ? (long) ((linea.getBufferSize() - linea.available()) / frame * 1e9 / f.getSampleRate())
+                        : 0;
+                    long error = RelojMedios.ahora() + enLinea - objetivo;
+                    if (error < -SALTO_NANOS || (error < 0 && linea == null)) {
+                        // Adelantados: se espera a que le toque (al empezar, o sin linea que marque el ritmo)
+                        if (!esperarHasta(objetivo - enLinea)) {
+                            return;
+                        }
+                        error = RelojMedios.ahora() + enLinea - objetivo;
+                    }
+                    errorSincronia = error;
+                    if (error > SALTO_NANOS) {
+                        // Atrasados: se saltan las muestras que ya deberian haber sonado
+                        desde = (int) Math.min(n / frame, (long) (error * f.getSampleRate() / 1e9)) * frame;
+                        framesAjustados += desde / frame;
+                    } else if (error > AJUSTE_NANOS && n > frame) {
+                        desde = frame;
+                        framesAjustados++;
+                    } else if (error < -AJUSTE_NANOS && linea != null) {
+                        repetir = true;
+                        framesAjustados++;
+                    }
+                }
+
+                if (linea != null) {
+                    if (repetir) {
+                        linea.write(pcm, 0, frame);
+                    }
+                    linea.write(pcm, desde, n - desde);
+                } else if (!sincronizar) {
+                    // Sin linea que marque el ritmo: reloj propio a la tasa del flujo
+                    long ahora = System.nanoTime();
+                    if (relojPropio == 0 || ahora - relojPropio > 100_000_000L) {
+                        relojPropio = ahora;
+                    }
+                    relojPropio += (long) (n / frame * 1e9 / f.getSampleRate());
+                    while (relojPropio - System.nanoTime() > 0) {
+                        LockSupport.parkNanos(this, relojPropio - System.nanoTime());
+                        if (Thread.interrupted()) {
+                            return;
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (linea != null) {
+                linea.close();
+            }
+        }
+    }
+
+    // Espera hasta el instante dado de RelojMedios; false si se interrumpio el hilo
+    private boolean esperarHasta(long instante) {
+        long espera;
+        while ((espera = instante - RelojMedios.ahora()) > 0) {
+            LockSupport.parkNanos(this, espera);
+            if (Thread.interrupted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Copia las muestras de 16 bits little-endian divididas por 2^veces
+    private static void atenuar(byte[] origen, byte[] destino, int longitud, int veces) {
+        int desplazamiento = Math.min(veces, 15);
+        for (int i = 0; i + 1 < longitud; i += 2) {
+            int muestra = (short) ((origen[i] & 0xFF) | (origen[i + 1] << 8));
+            muestra >>= desplazamiento;
+            destino[i] = (byte) muestra;
+            destino[i + 1] = (byte) (muestra >> 8);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Reconstruye tramas de audio perdidas a partir de las paridades XOR.
+ *
+ * Guarda una copia de los ultimos payloads recibidos (ranura seq % capacidad)
+ * y de las ultimas paridades. Cuando a un grupo le falta exactamente una
+ * trama, ya sea al llegar la paridad o al llegar una trama retrasada, la
+ * trama que falta es el XOR de la paridad con las demas. El resultado queda
+ * en recuperado() hasta la siguiente llamada; no se asigna memoria.
+ */
+public final class RecuperadorFEC {
+    private static final int CAPACIDAD = 64;
+    private static final int PARIDADES = 8;
+
+    private final byte[][] historial = new byte[CAPACIDAD][Protocolo.MAX_PAYLOAD];
+    private final int[] longitudes = new int[CAPACIDAD];
+    private final int[] seqs = new int[CAPACIDAD];
+    private final boolean[] validos = new boolean[CAPACIDAD];
+
+    private final byte[][] paridades = new byte[PARIDADES][Protocolo.MAX_PAYLOAD];
+    private final int[] primeros = new int[PARIDADES];
+    private final int[] tamanios = new int[PARIDADES];
+    private final int[] longitudesXor = new int[PARIDADES];
+    private final int[] longitudesParidad = new int[PARIDADES];
+    private final boolean[] pendientes = new boolean[PARIDADES];
+    private int siguienteParidad = 0;
+
+    private final byte[] recuperado = new byte[Protocolo.MAX_PAYLOAD];
+    private int longitudRecuperado;
+    private int seqRecuperado;
+
+    private long recuperados = 0;
+    private long irrecuperables = 0;
+
+    public byte[] recuperado() { return recuperado; }
+    public int longitudRecuperado() { return longitudRecuperado; }
+    public int seqRecuperado() { return seqRecuperado; }
+
+    /** Registra una trama de datos; devuelve true si con ella se recupero otra. */
+    public boolean datos(int seq, byte[] payload, int offset, int longitud) {
+        guardar(seq, payload, offset, longitud);
+        for (int i = 0; i < PARIDADES; i++) {
+            int distancia = seq - primeros[i];
+            if (pendientes[i] && distancia >= 0 && distancia < tamanios[i]) {
+                return intentar(i);
+            }
+        }
+        return false;
+    }
+
+    /** Registra una paridad; devuelve true si con ella se recupero una trama. */
+    public boolean paridad(int primerSeq, byte[] payload, int offset, int longitud) {
+        if (longitud < Protocolo.CABECERA_PARIDAD) {
+            return false;
+        }
+        int n = payload[offset] & 0xFF;
+        if (n == 0 || n >= CAPACIDAD) {
+            return false;
+        }
+        int i = siguienteParidad;
+        siguienteParidad = (siguienteParidad + 1) % PARIDADES;
+        if (pendientes[i]) {
+            // Se pisa una paridad a la que le faltaban dos o mas tramas
+            irrecuperables++;
+        }
+        primeros[i] = primerSeq;
+        tamanios[i] = n;
+        longitudesXor[i] = Protocolo.corto(payload, offset + 1);
+        longitudesParidad[i] = longitud - Protocolo.CABECERA_PARIDAD;
+        System.arraycopy(payload, offset + Protocolo.CABECERA_PARIDAD, paridades[i], 0, longitudesParidad[i]);
+        pendientes[i] = true;
+        return intentar(i);
+    }
+
+    public void vaciar() {
+        for (int i = 0; i < CAPACIDAD; i++) {
+            validos[i] = false;
+        }
+        for (int i = 0; i < PARIDADES; i++) {
+            pendientes[i] = false;
+        }
+    }
+
+    public String resumen() {
+        return "FEC recuperados: " + recuperados + " | sin recuperar: " + irrecuperables;
+    }
+
+    private void guardar(int seq, byte[] payload, int offset, int longitud) {
+        int ranura = Integer.remainderUnsigned(seq, CAPACIDAD);
+        System.arraycopy(payload, offset, historial[ranura], 0, longitud);
+        longitudes[ranura] = longitud;
+        seqs[ranura] = seq;
+        validos[ranura] = true;
+    }
+
+    private boolean presente(int seq) {
+        int ranura = Integer.remainderUnsigned(seq, CAPACIDAD);
+        return validos[ranura] && seqs[ranura] == seq;
+    }
+
+    private boolean intentar(int p) {
+        int primero = primeros[p];
+        int faltante = 0;
+        int faltan = 0;
+        for (int k = 0; k < tamanios[p]; k++) {
+            if (!presente(primero + k)) {
+                faltante = primero + k;
+                faltan++;
+            }
+        }
+        if (faltan == 0) {
+            pendientes[p] = false;
+            return false;
+        }
+        if (faltan > 1) {
+            return false;
+        }
+
+        byte[] paridad = paridades[p];
+        int longitudParidad = longitudesParidad[p];
+        int longitud = longitudesXor[p];
+        System.arraycopy(paridad, 0, recuperado, 0, longitudParidad);
+        for (int k = 0; k < tamanios[p]; k++) {
+            int seq = primero + k;
+            if (seq == faltante) {
+                continue;
+            }
+            int ranura = Integer.remainderUnsigned(seq, CAPACIDAD);
+            byte[] datos = historial[ranura];
+            int n = longitudes[ranura];
+            for (int b = 0; b < n; b++) {
+                recuperado[b] ^= datos[b];
+            }
+            longitud ^= n;
+        }
+        pendientes[p] = false;
+        if (longitud <= 0 || longitud > longitudParidad) {
+            irrecuperables++;
+            return false;
+        }
+
+        longitudRecuperado = longitud;
+        seqRecuperado = faltante;
+        guardar(faltante, recuperado, 0, longitud);
+        recuperados++;
+        return true;
+    }
+}
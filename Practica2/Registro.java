@@ -0,0 +1,347 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Registro asincrono para los hilos de red.
+ *
+ * Los productores copian la plantilla y sus argumentos en una entrada
+ * preasignada de un buffer circular (cola MPSC acotada de Vyukov, sin
+ * candados) y vuelven de inmediato; un hilo propio da formato y escribe en
+ * el destino. Los "{}" de la plantilla se sustituyen en orden por los
+ * argumentos, asi que el texto solo se construye en el hilo escritor. Si el
+ * buffer esta lleno el mensaje se descarta y se cuenta: registrar nunca
+ * bloquea al protocolo.
+ *
+ * Configuracion por programa: -D<prefijo>.log.nivel=DEBUG|INFO|WARN|ERROR|OFF
+ * y -D<prefijo>.log.destino=consola|nulo|<ruta de archivo>.
+ */
+public final class Registro {
+
+    public enum Nivel { DEBUG, INFO, WARN, ERROR, OFF }
+
+    /** Donde acaban los mensajes ya formateados; solo lo usa el hilo escritor. */
+    public interface Destino {
+        void escribir(Nivel nivel, CharSequence texto) throws IOException;
+
+        // Se llama tras cada tanda de mensajes
+        default void vaciar() throws IOException {}
+    }
+
+    /** stdout, y stderr para WARN y ERROR. */
+    public static final Destino CONSOLA = new Destino() {
+        @Override
+        public void escribir(Nivel nivel, CharSequence texto) {
+            (nivel.compareTo(Nivel.WARN) >= 0 ? System.err : System.out).append(texto);
+        }
+
+        @Override
+        public void vaciar() {
+            System.out.flush();
+            System.err.flush();
+        }
+    };
+
+    public static final Destino NULO = (nivel, texto) -> {};
+
+    public static Destino archivo(String ruta) throws IOException {
+        BufferedWriter salida = Files.newBufferedWriter(Paths.get(ruta), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return new Destino() {
+            @Override
+            public void escribir(Nivel nivel, CharSequence texto) throws IOException {
+                salida.append(texto);
+            }
+
+            @Override
+            public void vaciar() throws IOException {
+                salida.flush();
+            }
+        };
+    }
+
+    private static final int CAPACIDAD = Integer.getInteger("registro.capacidad", 8192);
+    private static final long ESPERA_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // Entrada preasignada; los argumentos numericos se guardan sin boxing
+    private static final class Entrada {
+        Nivel nivel;
+        String plantilla;
+        boolean salto;
+        int argumentos;
+        int numericos;           // bit i: el argumento i es numerico
+        final Object[] objetos = new Object[3];
+        final long[] numeros = new long[3];
+    }
+
+    private final Entrada[] entradas;
+    private final AtomicLongArray secuencias;
+    private final int mascara;
+    private final AtomicLong cola = new AtomicLong();
+    private long cabeza = 0;                       // solo el hilo escritor
+    private final AtomicLong descartados = new AtomicLong();
+
+    private volatile Nivel nivel;
+    private volatile Destino destino;
+    private volatile boolean activo = true;
+    private final Thread escritor;
+    private final StringBuilder texto = new StringBuilder(256);
+
+    public Registro(String nombre, Nivel nivel, Destino destino) {
+        int capacidad = Integer.highestOneBit(Math.max(2, CAPACIDAD - 1) << 1);
+        this.entradas = new Entrada[capacidad];
+        this.secuencias = new AtomicLongArray(capacidad);
+        for (int i = 0; i < capacidad; i++) {
+            entradas[i] = new Entrada();
+            secuencias.set(i, i);
+        }
+        this.mascara = capacidad - 1;
+        this.nivel = nivel;
+        this.destino = destino;
+
+        this.escritor = new Thread(this::escribir, "registro-" + nombre);
+        this.escritor.setDaemon(true);
+        this.escritor.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::cerrar, "registro-" + nombre + "-cierre"));
+    }
+
+    /** Registro configurado con -D<prefijo>.log.nivel y -D<prefijo>.log.destino. */
+    public static Registro para(String prefijo, Nivel nivelPorDefecto) {
+        Nivel nivel = Nivel.valueOf(System.getProperty(prefijo + ".log.nivel", nivelPorDefecto.name()).toUpperCase());
+        String nombreDestino = System.getProperty(prefijo + ".log.destino", "consola");
+        Destino destino;
+        if (nombreDestino.equals("consola")) {
+            destino = CONSOLA;
+        } else if (nombreDestino.equals("nulo")) {
+            destino = NULO;
+        } else {
+            try {
+                destino = archivo(nombreDestino);
+            } catch (IOException e) {
+                System.err.println("No se pudo abrir " + nombreDestino + " para el registro, se usa la consola");
+                destino = CONSOLA;
+            }
+        }
+        return new Registro(prefijo, nivel, destino);
+    }
+
+    public void setNivel(Nivel nivel) {
+        this.nivel = nivel;
+    }
+
+    public void setDestino(Destino destino) {
+        this.destino = destino;
+    }
+
+    public boolean activo(Nivel n) {
+        return n.compareTo(nivel) >= 0 && n != Nivel.OFF;
+    }
+
+    public boolean depura() {
+        return activo(Nivel.DEBUG);
+    }
+
+    public long getDescartados() {
+        return descartados.get();
+    }
+
+    public void info(String mensaje) {
+        registrar(Nivel.INFO, mensaje);
+    }
+
+    public void aviso(String mensaje) {
+        registrar(Nivel.WARN, mensaje);
+    }
+
+    public void error(String mensaje) {
+        registrar(Nivel.ERROR, mensaje);
+    }
+
+    // Texto sin salto de linea (prompts), en orden con el resto de mensajes
+    public void imprimir(String texto) {
+        publicar(Nivel.INFO, texto, false, 0, 0, null, 0, null, 0, null, 0);
+    }
+
+    public void registrar(Nivel n, String plantilla) {
+        publicar(n, plantilla, true, 0, 0, null, 0, null, 0, null, 0);
+    }
+
+    public void registrar(Nivel n, String plantilla, Object a) {
+        publicar(n, plantilla, true, 1, 0, a, 0, null, 0, null, 0);
+    }
+
+    public void registrar(Nivel n, String plantilla, long a) {
+        publicar(n, plantilla, true, 1, 0b001, null, a, null, 0, null, 0);
+    }
+
+    public void registrar(Nivel n, String plantilla, Object a, Object b) {
+        publicar(n, plantilla, true, 2, 0, a, 0, b, 0, null, 0);
+    }
+
+    public void registrar(Nivel n, String plantilla, Object a, long b) {
+        publicar(n, plantilla, true, 2, 0b010, a, 0, null, b, null, 0);
+    }
+
+    public void registrar(Nivel n, String plantilla, long a, long b) {
+        publicar(n, plantilla, true, 2, 0b011, null, a, null, b, null, 0);
+    }
+
+    public void registrar(Nivel n, String plantilla, Object a, long b, Object c) {
+        publicar(n, plantilla, true, 3, 0b010, a, 0, null, b, c, 0);
+    }
+
+    public void registrar(Nivel n, String plantilla, long a, Object b, Object c) {
+        publicar(n, plantilla, true, 3, 0b001, null, a, b, 0, c, 0);
+    }
+
+    public void registrar(Nivel n, String plantilla, Object a, long b, long c) {
+        publicar(n, plantilla, true, 3, 0b110, a, 0, null, b, null, c);
+    }
+
+    public void registrar(Nivel n, String plantilla, long a, long b, long c) {
+        publicar(n, plantilla, true, 3, 0b111, null, a, null, b, null, c);
+    }
+
+    private void publicar(Nivel n, String plantilla, boolean salto, int argumentos, int numericos,
+                          Object o0, long n0, Object o1, long n1, Object o2, long n2) {
+        if (!activo(n)) {
+            return;
+        }
+        long pos = cola.get();
+        int i;
+        while (true) {
+            i = (int) (pos & mascara);
+            long diferencia = secuencias.get(i) - pos;
+            if (diferencia == 0) {
+                if (cola.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = cola.get();
+            } else if (diferencia < 0) {
+                // Lleno: el escritor va por detras, se descarta en vez de esperar
+                descartados.incrementAndGet();
+                return;
+            } else {
+                pos = cola.get();
+            }
+        }
+
+        Entrada e = entradas[i];
+        e.nivel = n;
+        e.plantilla = plantilla;
+        e.salto = salto;
+        e.argumentos = argumentos;
+        e.numericos = numericos;
+        e.objetos[0] = o0;
+        e.objetos[1] = o1;
+        e.objetos[2] = o2;
+        e.numeros[0] = n0;
+        e.numeros[1] = n1;
+        e.numeros[2] = n2;
+        secuencias.lazySet(i, pos + 1);
+    }
+
+    /** Vacia lo pendiente y detiene el hilo escritor. */
+    public void cerrar() {
+        if (!activo) {
+            return;
+        }
+        activo = false;
+        LockSupport.unpark(escritor);
+        try {
+            escritor.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void escribir() {
+        long avisados = 0;
+        while (true) {
+            int escritos = drenar();
+            long perdidos = descartados.get();
+            if (perdidos != avisados) {
+                texto.setLength(0);
+                texto.append("[registro] ").append(perdidos - avisados).append(" mensajes descartados (buffer lleno)\n");
+                salida(Nivel.WARN, texto);
+                avisados = perdidos;
+                escritos++;
+            }
+            if (escritos > 0) {
+                try {
+                    destino.vaciar();
+                } catch (IOException e) {
+                    // Sin destino donde informar
+                }
+            } else if (!activo) {
+                return;
+            } else {
+                LockSupport.parkNanos(this, ESPERA_NANOS);
+            }
+        }
+    }
+
+    private int drenar() {
+        int escritos = 0;
+        while (true) {
+            int i = (int) (cabeza & mascara);
+            if (secuencias.get(i) != cabeza + 1) {
+                return escritos;
+            }
+            Entrada e = entradas[i];
+            formatear(e);
+            Nivel n = e.nivel;
+            e.plantilla = null;
+            e.objetos[0] = null;
+            e.objetos[1] = null;
+            e.objetos[2] = null;
+            secuencias.lazySet(i, cabeza + entradas.length);
+            cabeza++;
+
+            salida(n, texto);
+            escritos++;
+        }
+    }
+
+    private void salida(Nivel n, CharSequence linea) {
+        try {
+            destino.escribir(n, linea);
+        } catch (IOException ex) {
+            descartados.incrementAndGet();
+        }
+    }
+
+    private void formatear(Entrada e) {
+        texto.setLength(0);
+        String p = e.plantilla;
+        int argumento = 0;
+        int desde = 0;
+        int marca;
+        while (argumento < e.argumentos && (marca = p.indexOf("{}", desde)) >= 0) {
+            texto.append(p, desde, marca);
+            if ((e.numericos & (1 << argumento)) != 0) {
+                texto.append(e.numeros[argumento]);
+            } else {
+                Object o = e.objetos[argumento];
+                if (o instanceof byte[]) {
+                    texto.append(new String((byte[]) o, StandardCharsets.UTF_8));
+                } else {
+                    texto.append(o);
+                }
+            }
+            argumento++;
+            desde = marca + 2;
+        }
+        texto.append(p, desde, p.length());
+        if (e.salto) {
+            texto.append(System.lineSeparator());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Reloj de pared compartido entre el servidor y los oyentes.
+ *
+ * ahora() da el reloj de pared en nanosegundos con la resolucion de
+ * System.nanoTime(): se ancla una vez a currentTimeMillis() y despues avanza
+ * con el reloj monotono, asi los saltos de NTP del sistema no descolocan la
+ * reproduccion.
+ *
+ * Cada instancia estima el desfase con el reloj del servidor a partir de
+ * intercambios OP_RELOJ, como NTP:
+ *
+ *   retardo = (t4 - t1) - (t3 - t2)
+ *   desfase = ((t2 - t1) + (t3 - t4)) / 2
+ *
+ * De las ultimas MUESTRAS se usa la de menor retardo, que es la que menos
+ * asimetria de colas puede esconder (el filtro de reloj de NTP).
+ */
+public final class RelojMedios {
+    private static final int MUESTRAS = 8;
+    private static final long BASE = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+
+    private final long[] retardos = new long[MUESTRAS];
+    private final long[] desfases = new long[MUESTRAS];
+    private int muestras = 0;
+    private int siguiente = 0;
+    private long desfase = 0;
+    private long retardo = 0;
+
+    public static long ahora() {
+        return BASE + System.nanoTime();
+    }
+
+    // Un instante de System.nanoTime() en el mismo reloj que ahora()
+    public static long dePared(long nanoTime) {
+        return BASE + nanoTime;
+    }
+
+    /** Registra un intercambio completo; t4 es la llegada de la respuesta. */
+    public synchronized void muestra(long t1, long t2, long t3, long t4) {
+        long r = (t4 - t1) - (t3 - t2);
+        if (r < 0) {
+            return;
+        }
+        retardos[siguiente] = r;
+        desfases[siguiente] = ((t2 - t1) + (t3 - t4)) / 2;
+        siguiente = (siguiente + 1) % MUESTRAS;
+        muestras = Math.min(muestras + 1, MUESTRAS);
+
+        int mejor = 0;
+        for (int i = 1; i < muestras; i++) {
+            if (retardos[i] < retardos[mejor]) {
+                mejor = i;
+            }
+        }
+        desfase = desfases[mejor];
+        retardo = retardos[mejor];
+    }
+
+    public synchronized boolean sincronizado() {
+        return muestras > 0;
+    }
+
+    /** Reloj del servidor menos el local, en nanosegundos. */
+    public synchronized long desfase() {
+        return desfase;
+    }
+
+    /** Instante del servidor expresado en el reloj local (ahora()). */
+    public synchronized long aLocal(long instanteServidor) {
+        return instanteServidor - desfase;
+    }
+
+    public synchronized String resumen() {
+        if (muestras == 0) {
+            return "Reloj: sin sincronizar";
+        }
+        return String.format("Reloj: desfase %.3f ms | retardo %.3f ms | muestras: %d",
+            desfase / 1e6, retardo / 1e6, muestras);
+    }
+}
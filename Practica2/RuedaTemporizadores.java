@@ -0,0 +1,152 @@
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Rueda de temporizadores con hash (Varghese y Lauck).
+ *
+ * Cada temporizador se programa una sola vez en la ranura que corresponde a
+ * su vencimiento y se cancela en O(1) desenlazandolo de la lista de su
+ * ranura. Un hilo propio avanza la rueda cada tick y ejecuta las tareas
+ * vencidas fuera del candado, en ese mismo hilo.
+ */
+public class RuedaTemporizadores {
+
+    /** Temporizador programado; cancelar() es idempotente. */
+    public final class Temporizador {
+        private final Runnable tarea;
+        private long vueltas;
+        private int ranura = -1;
+        private Temporizador anterior;
+        private Temporizador siguiente;
+
+        private Temporizador(Runnable tarea) {
+            this.tarea = tarea;
+        }
+
+        public void cancelar() {
+            synchronized (RuedaTemporizadores.this) {
+                desenlazar(this);
+            }
+        }
+
+        public boolean activo() {
+            synchronized (RuedaTemporizadores.this) {
+                return ranura >= 0;
+            }
+        }
+    }
+
+    private static final int TICKS_PAUSA = 5;     // atraso que delata que el proceso estuvo parado
+
+    private final Temporizador[] ranuras;
+    private final int mascara;
+    private final long tickNanos;
+    private final Thread hilo;
+    private final ArrayList<Temporizador> vencidos = new ArrayList<>();
+    private long tickActual = 0;
+    private int pendientes = 0;
+    private volatile boolean activa = true;
+    private volatile long finPausa;
+
+    public RuedaTemporizadores(long tick, TimeUnit unidad, int numeroRanuras, String nombre) {
+        int n = Integer.highestOneBit(Math.max(2, numeroRanuras - 1) << 1);
+        this.ranuras = new Temporizador[n];
+        this.mascara = n - 1;
+        this.tickNanos = Math.max(1, unidad.toNanos(tick));
+        this.finPausa = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+        this.hilo = new Thread(this::girar, nombre);
+        this.hilo.setDaemon(true);
+        this.hilo.start();
+    }
+
+    /**
+     * Ultima vez (System.nanoTime) que la rueda se encontro varios ticks
+     * atrasada: el proceso estuvo parado, por ejemplo por el GC, y se estan
+     * ejecutando de golpe los temporizadores de la pausa.
+     */
+    public long finPausa() {
+        return finPausa;
+    }
+
+    public synchronized Temporizador programar(long retraso, TimeUnit unidad, Runnable tarea) {
+        Temporizador t = new Temporizador(tarea);
+        long ticks = Math.max(1, (unidad.toNanos(retraso) + tickNanos - 1) / tickNanos);
+        long destino = tickActual + ticks;
+        t.vueltas = (ticks - 1) / ranuras.length;
+        t.ranura = (int) (destino & mascara);
+        t.siguiente = ranuras[t.ranura];
+        if (t.siguiente != null) {
+            t.siguiente.anterior = t;
+        }
+        ranuras[t.ranura] = t;
+        pendientes++;
+        return t;
+    }
+
+    public synchronized int pendientes() {
+        return pendientes;
+    }
+
+    public void detener() {
+        activa = false;
+        hilo.interrupt();
+    }
+
+    private void desenlazar(Temporizador t) {
+        if (t.ranura < 0) {
+            return;
+        }
+        if (t.anterior != null) {
+            t.anterior.siguiente = t.siguiente;
+        } else {
+            ranuras[t.ranura] = t.siguiente;
+        }
+        if (t.siguiente != null) {
+            t.siguiente.anterior = t.anterior;
+        }
+        t.anterior = null;
+        t.siguiente = null;
+        t.ranura = -1;
+        pendientes--;
+    }
+
+    private void girar() {
+        long siguienteTick = System.nanoTime() + tickNanos;
+        while (activa) {
+            long espera = siguienteTick - System.nanoTime();
+            if (espera > 0) {
+                LockSupport.parkNanos(this, espera);
+                continue;
+            }
+            if (-espera > TICKS_PAUSA * tickNanos) {
+                finPausa = System.nanoTime();
+            }
+            siguienteTick += tickNanos;
+
+            synchronized (this) {
+                tickActual++;
+                Temporizador t = ranuras[(int) (tickActual & mascara)];
+                while (t != null) {
+                    Temporizador sig = t.siguiente;
+                    if (t.vueltas > 0) {
+                        t.vueltas--;
+                    } else {
+                        desenlazar(t);
+                        vencidos.add(t);
+                    }
+                    t = sig;
+                }
+            }
+
+            for (int i = 0; i < vencidos.size(); i++) {
+                try {
+                    vencidos.get(i).tarea.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Error en temporizador: " + e.getMessage());
+                }
+            }
+            vencidos.clear();
+        }
+    }
+}
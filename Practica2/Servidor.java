@@ -1,175 +1,851 @@
-import java.net.DatagramPacket;
+import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
-import java.util.Arrays;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ToLongFunction;
 
 public class Servidor {
-    private MulticastSocket serverSocket;
+    // -Dservidor.nio=true usa un DatagramChannel con buffers directos reutilizados
+    private static final boolean MODO_NIO = Boolean.getBoolean("servidor.nio");
+    // -Dservidor.traza=false deja el registro en INFO (sin trazas por paquete);
+    // -Dservidor.log.nivel y -Dservidor.log.destino lo configuran en detalle
+    private static final boolean TRAZA = Boolean.parseBoolean(System.getProperty("servidor.traza", "true"));
+    private static final Registro REGISTRO = Registro.para("servidor", TRAZA ? Registro.Nivel.DEBUG : Registro.Nivel.INFO);
+    private static final Registro.Nivel DEBUG = Registro.Nivel.DEBUG;
+    // -Dservidor.reporte=N imprime los contadores cada N paquetes (0 = solo en STATUS)
+    private static final long REPORTE = Long.getLong("servidor.reporte", 0);
+    // -Dservidor.sesion.inactiva=ms tras los cuales se descarta una sesion sin trafico
+    private static final long SESION_INACTIVA_MS = Long.getLong("servidor.sesion.inactiva", 60000);
+    // -Dservidor.ventana=N tamaño maximo de la ventana de reordenamiento por sesion
+    private static final int VENTANA_MAXIMA = Integer.getInteger("servidor.ventana", 64);
+    // -Dservidor.trabajadores=N hilos que ejecutan comandos (0 = todo en el hilo receptor)
+    private static final int TRABAJADORES = Integer.getInteger("servidor.trabajadores", 4);
+    // -Dservidor.cola=N paquetes pendientes por trabajador y en la cola de envio
+    private static final int COLA = Integer.getInteger("servidor.cola", 1024);
+    private static final int PUERTO = 7777;
+    // -Dservidor.audio=archivo emite ese audio al grupo; PLAY/PAUSE/STOP/RESTART lo controlan
+    private static final String AUDIO = System.getProperty("servidor.audio");
+    // -Dservidor.audio.puerto, .ms (duracion de cada paquete) y .bucle (repetir al terminar)
+    private static final int PUERTO_AUDIO = Integer.getInteger("servidor.audio.puerto", 7778);
+    private static final int MS_POR_PAQUETE = Integer.getInteger("servidor.audio.ms", 20);
+    private static final boolean BUCLE = Boolean.getBoolean("servidor.audio.bucle");
+    // -Dservidor.audio.fec=N emite una paridad XOR cada N paquetes del flujo (0 = sin FEC)
+    private static final int FEC = Integer.getInteger("servidor.audio.fec", 0);
+    // -Dservidor.audio.retardo=ms entre la emision de un paquete y su instante de presentacion
+    private static final int RETARDO_PRESENTACION = Integer.getInteger("servidor.audio.retardo", 150);
+    // -Dservidor.audio.codec=adpcm|mulaw|pcm preferido; se usa si todos los clientes lo anuncian en CONNECT
+    private static final int CODEC = CodecAudio.deNombre(System.getProperty("servidor.audio.codec", "adpcm"));
+
+    // Respuestas precodificadas para no asignar memoria al responder
+    private static final byte[] RESP_CONNECT = utf8("Conectado - Servidor listo");
+    private static final byte[] RESP_PLAY = utf8("Comando PLAY recibido y procesado");
+    private static final byte[] RESP_PAUSE = utf8("Comando PAUSE recibido y procesado");
+    private static final byte[] RESP_STOP = utf8("Comando STOP recibido y procesado");
+    private static final byte[] RESP_RESTART = utf8("Comando RESTART recibido y procesado");
+    private static final byte[] RESP_BUFFERED = utf8("BUFFERED");
+    private static final byte[] RESP_DUPLICADO = utf8("DUPLICADO");
+    private static final byte[] RESP_SIN_SESION = utf8("SESION DESCONOCIDA");
+
+    private Transporte transporte;
     private InetAddress multicastGroup;
-    private int nextExpectedSeq = 0;
-    private Map<Integer, String> receivedCommands = new ConcurrentHashMap<>();
-    
+    private EmisorAudio emisor;
+
+    // Una sesion por remitente (direccion:puerto) para que los clientes no se mezclen
+    private final Map<SocketAddress, Sesion> sesiones = new ConcurrentHashMap<>();
+    private ScheduledExecutorService expiracion;
+
+    // Buffers del hilo receptor y del que envia los ACK (directos en modo NIO)
+    private ByteBuffer bufferRecepcion;
+    private ByteBuffer bufferEnvio;
+
+    // Recibe (cliente, seq) de cada comando al ejecutarse; solo lo usan las pruebas del enlace emulado
+    private ObjIntConsumer<SocketAddress> observador;
+
+    // Etapas: receptor -> cola de cada trabajador -> trabajador -> cola de envio -> emisor.
+    // Cada sesion cae siempre en el mismo trabajador, asi se conserva su orden.
+    // Sin trabajadores (o sin red) el hilo receptor lo hace todo con "local".
+    private Trabajador[] trabajadores;
+    private final Trabajador local = new Trabajador(null);
+    private BlockingQueue<Paquete> libres;
+    private BlockingQueue<Paquete> salida;
+
+    // Contadores del hilo receptor
+    private volatile long paquetesRecibidos = 0;
+    private volatile long descartadosCola = 0;
+    private volatile long hiloReceptor = -1;
+
+    // Hilos de las demas etapas y bytes que llevaba asignados cada etapa
+    // (recepcion, trabajadores, emisor) al llegar el primer paquete
+    private long[] hilosTrabajadores = new long[0];
+    private long hiloEmisor = -1;
+    private volatile long[] asignadosAlInicio;
+
+    // Metricas; con -Dservidor.metricas.puerto=N se sirven en http://localhost:N/metricas
+    private final Metricas metricas = new Metricas("servidor");
+    private final Metricas.Contador comandosProcesados =
+        metricas.contador("comandos_procesados", "Comandos ejecutados en orden");
+    private final Metricas.Contador duplicados =
+        metricas.contador("duplicados", "Comandos ya procesados que el cliente reenvio");
+    private final Metricas.Histograma profundidadReordenamiento = metricas.histograma("reordenamiento_profundidad",
+        "Comandos en la ventana de reordenamiento de la sesion al guardar uno fuera de orden");
+
+    // Datagrama del pool compartido por las etapas
+    private static final class Paquete {
+        private final byte[] datos = new byte[Protocolo.MAX_DATAGRAMA];
+        private final ByteBuffer vista = ByteBuffer.wrap(datos);
+        private SocketAddress direccion;
+        private long llegada;           // RelojMedios.ahora() al recibirlo
+    }
+
+    // Estado propio de un hilo que ejecuta comandos
+    private final class Trabajador implements Runnable {
+        private final BlockingQueue<Paquete> entrada;
+        private final Protocolo.Trama trama = new Protocolo.Trama();
+
+        // Mientras se procesa un lote las respuestas se acumulan para un solo ACK
+        private boolean enLote = false;
+        private final ByteBuffer respuestasLote = ByteBuffer.allocate(Protocolo.MAX_PAYLOAD - Protocolo.LONGITUD_SACK);
+
+        private volatile long paquetesInvalidos = 0;
+        private volatile long fueraDeVentana = 0;
+        private volatile long sinSesion = 0;
+        private volatile long respuestasDescartadas = 0;
+
+        Trabajador(BlockingQueue<Paquete> entrada) {
+            this.entrada = entrada;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Paquete p = entrada.take();
+                    try {
+                        procesarDatagrama(this, p.vista, p.direccion, p.llegada);
+                    } catch (RuntimeException e) {
+                        REGISTRO.error("Error procesando comando de " + p.direccion + ": " + e);
+                    } finally {
+                        liberar(p);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Estado de ventana deslizante de un cliente
+    private static final class Sesion {
+        private final SocketAddress cliente;
+        private int nextExpectedSeq = 0;
+        private int epoca = 0;
+        private volatile int codecs = CodecAudio.mascara(CodecAudio.PCM16);
+        private boolean texto = false;      // el cliente usa el formato de texto anterior
+        private VentanaReordenamiento receivedCommands = new VentanaReordenamiento(VENTANA_MAXIMA);
+        private volatile long ultimaActividad;
+
+        Sesion(SocketAddress cliente) {
+            this.cliente = cliente;
+        }
+    }
+
     public Servidor() {
         try {
             multicastGroup = InetAddress.getByName("ff3e:40:2001::1");
-            serverSocket = new MulticastSocket(7777);
-            serverSocket.joinGroup(multicastGroup);
-            serverSocket.setReuseAddress(true);
-            serverSocket.setTimeToLive(255);
 
-            System.out.println("Servidor de Audio con Ventana Deslizante iniciado...");
-            System.out.println("Grupo: " + multicastGroup + ", Puerto: 7777");
-            System.out.println("Esperando comandos con ventana deslizante...");
+            if (MODO_NIO) {
+                abrirCanal();
+            } else {
+                MulticastSocket serverSocket = new MulticastSocket(PUERTO);
+                serverSocket.joinGroup(multicastGroup);
+                serverSocket.setReuseAddress(true);
+                serverSocket.setTimeToLive(255);
+                transporte = Transporte.de(serverSocket);
+                bufferRecepcion = ByteBuffer.allocate(Protocolo.MAX_DATAGRAMA);
+                bufferEnvio = ByteBuffer.allocate(Protocolo.MAX_DATAGRAMA);
+            }
 
-            listenForCommands();
+            REGISTRO.info("Servidor de Audio con Ventana Deslizante iniciado...");
+            REGISTRO.info("Grupo: " + multicastGroup + ", Puerto: " + PUERTO + (MODO_NIO ? " (NIO)" : "")
+                + (TRABAJADORES > 0 ? ", trabajadores: " + TRABAJADORES : ""));
+            REGISTRO.info("Esperando comandos con ventana deslizante...");
+
+            registrarMetricas();
+            metricas.publicar();
+            iniciarExpiracionSesiones();
+            if (TRABAJADORES > 0) {
+                iniciarEtapas();
+            }
+            if (AUDIO != null) {
+                iniciarEmisor();
+            }
+
+            escuchar();
 
         } catch (Exception e) {
-            System.err.println("Error iniciando servidor: " + e.getMessage());
+            REGISTRO.error("Error iniciando servidor: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    public static class Mensaje {
-        private int sequenceNumber;
-        private int ackNumber;
-        private String comando;
-        private long timestamp;
-        
-        public Mensaje(int seq, int ack, String cmd) {
-            this.sequenceNumber = seq;
-            this.ackNumber = ack;
-            this.comando = cmd;
-            this.timestamp = System.currentTimeMillis();
-        }
-        
-        public int getSequenceNumber() { return sequenceNumber; }
-        public int getAckNumber() { return ackNumber; }
-        public String getComando() { return comando; }
-        public long getTimestamp() { return timestamp; }
-        
-        public byte[] toBytes() {
-            String data = sequenceNumber + ":" + ackNumber + ":" + comando;
-            return data.getBytes();
-        }
-        
-        public static Mensaje fromBytes(byte[] data) {
-            try {
-                String str = new String(data).trim();
-                String[] parts = str.split(":", 3);
-                if (parts.length == 3) {
-                    return new Mensaje(
-                        Integer.parseInt(parts[0]),
-                        Integer.parseInt(parts[1]),
-                        parts[2]
-                    );
+    // Servidor sin sockets: los ACK se codifican y se descartan (benchmarks)
+    Servidor(boolean sinRed) {
+        bufferRecepcion = ByteBuffer.allocate(Protocolo.MAX_DATAGRAMA);
+        bufferEnvio = ByteBuffer.allocate(Protocolo.MAX_DATAGRAMA);
+    }
+
+    // Servidor sobre un transporte dado (EnlaceEmulado) y sin audio; como el
+    // publico, atiende en el hilo que lo crea hasta que se cierra el transporte
+    Servidor(Transporte transporte, ObjIntConsumer<SocketAddress> observador) {
+        this.transporte = transporte;
+        this.observador = observador;
+        bufferRecepcion = ByteBuffer.allocate(Protocolo.MAX_DATAGRAMA);
+        bufferEnvio = ByteBuffer.allocate(Protocolo.MAX_DATAGRAMA);
+        iniciarExpiracionSesiones();
+        if (TRABAJADORES > 0) {
+            iniciarEtapas();
+        }
+        escuchar();
+        expiracion.shutdownNow();
+    }
+
+    // Contadores que ya llevan el receptor y los trabajadores, leidos al exportar
+    private void registrarMetricas() {
+        metricas.contador("paquetes_recibidos", "Datagramas recibidos", () -> paquetesRecibidos);
+        metricas.contador("descartados_cola", "Datagramas descartados con los trabajadores saturados", () -> descartadosCola);
+        metricas.contador("invalidos", "Datagramas que no se pudieron decodificar", () -> sumar(t -> t.paquetesInvalidos));
+        metricas.contador("fuera_de_ventana", "Comandos mas alla de la ventana negociada", () -> sumar(t -> t.fueraDeVentana));
+        metricas.contador("sin_sesion", "Comandos de clientes sin sesion (se pide reconectar o, en texto, se reabre)",
+            () -> sumar(t -> t.sinSesion));
+        metricas.contador("respuestas_descartadas", "ACK sin paquete libre o con la cola de envio llena",
+            () -> sumar(t -> t.respuestasDescartadas));
+        metricas.medidor("sesiones", "Sesiones activas", () -> sesiones.size());
+        metricas.medidor("cola_envio", "ACK esperando al hilo emisor", () -> salida != null ? salida.size() : 0);
+    }
+
+    private void iniciarEmisor() {
+        try {
+            emisor = new EmisorAudio(new File(AUDIO), multicastGroup, PUERTO_AUDIO, interfazMulticast(),
+                MS_POR_PAQUETE, BUCLE, FEC, RETARDO_PRESENTACION, CODEC);
+            REGISTRO.info("Flujo de audio: " + AUDIO + " -> [" + multicastGroup.getHostAddress() + "]:" + PUERTO_AUDIO);
+        } catch (Exception e) {
+            REGISTRO.error("No se pudo iniciar el flujo de audio: " + e.getMessage());
+        }
+    }
+
+    private void iniciarEtapas() {
+        libres = new ArrayBlockingQueue<>((TRABAJADORES + 1) * COLA);
+        while (libres.remainingCapacity() > 0) {
+            libres.add(new Paquete());
+        }
+        salida = new ArrayBlockingQueue<>(COLA);
+
+        trabajadores = new Trabajador[TRABAJADORES];
+        hilosTrabajadores = new long[TRABAJADORES];
+        for (int i = 0; i < TRABAJADORES; i++) {
+            trabajadores[i] = new Trabajador(new ArrayBlockingQueue<>(COLA));
+            Thread t = new Thread(trabajadores[i], "servidor-trabajador-" + i);
+            t.setDaemon(true);
+            hilosTrabajadores[i] = t.getId();
+            t.start();
+        }
+
+        Thread emisor = new Thread(this::emitir, "servidor-emisor");
+        emisor.setDaemon(true);
+        hiloEmisor = emisor.getId();
+        emisor.start();
+    }
+
+    // Etapa final: envia los ACK que codificaron los trabajadores
+    private void emitir() {
+        try {
+            while (true) {
+                Paquete p = salida.take();
+                try {
+                    enviarDatagrama(p.vista, p.direccion);
+                } catch (Exception e) {
+                    REGISTRO.error("Error enviando ACK: " + e.getMessage());
+                } finally {
+                    liberar(p);
                 }
-            } catch (Exception e) {
-                System.err.println("Error parseando mensaje: " + new String(data));
             }
-            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void liberar(Paquete p) {
+        p.direccion = null;
+        libres.offer(p);
+    }
+
+    // Revisa periodicamente las sesiones y descarta las inactivas
+    private void iniciarExpiracionSesiones() {
+        expiracion = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "expiracion-sesiones");
+            t.setDaemon(true);
+            return t;
+        });
+        long periodo = Math.max(1000, SESION_INACTIVA_MS / 4);
+        expiracion.scheduleAtFixedRate(this::expirarSesiones, periodo, periodo, TimeUnit.MILLISECONDS);
+    }
+
+    private void expirarSesiones() {
+        long limite = System.currentTimeMillis() - SESION_INACTIVA_MS;
+        for (Sesion sesion : sesiones.values()) {
+            if (sesion.ultimaActividad < limite && sesiones.remove(sesion.cliente, sesion)) {
+                REGISTRO.registrar(Registro.Nivel.INFO, "Sesion expirada: {} [Seq esperada:{}]", sesion.cliente, sesion.nextExpectedSeq);
+            }
+        }
+        negociarCodec();
+    }
+
+    // El flujo es uno para todo el grupo: se usa el codec preferido si todas las
+    // sesiones lo entienden y, si no, el mas compacto que tengan en comun
+    private synchronized void negociarCodec() {
+        if (emisor == null) {
+            return;
+        }
+        int comunes = CodecAudio.TODOS;
+        for (Sesion sesion : sesiones.values()) {
+            comunes &= sesion.codecs;
+        }
+        int anterior = emisor.getCodec();
+        emisor.setCodec(CodecAudio.elegir(CODEC, comunes));
+        if (emisor.getCodec() != anterior) {
+            REGISTRO.registrar(Registro.Nivel.INFO, "Codec del flujo: {} -> {}",
+                CodecAudio.nombre(anterior), CodecAudio.nombre(emisor.getCodec()));
+        }
+    }
+
+    private Sesion sesionDe(SocketAddress cliente) {
+        Sesion sesion = sesiones.get(cliente);
+        if (sesion == null) {
+            sesion = new Sesion(cliente);
+            sesiones.put(cliente, sesion);
+            REGISTRO.registrar(DEBUG, "Nueva sesion: {} (activas: {})", cliente, sesiones.size());
+        }
+        sesion.ultimaActividad = System.currentTimeMillis();
+        return sesion;
+    }
+
+    private void abrirCanal() throws Exception {
+        DatagramChannel canal = DatagramChannel.open(StandardProtocolFamily.INET6);
+        canal.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        canal.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 255);
+        canal.bind(new InetSocketAddress(PUERTO));
+        canal.join(multicastGroup, interfazMulticast());
+        transporte = Transporte.de(canal);
+
+        bufferRecepcion = ByteBuffer.allocateDirect(Protocolo.MAX_DATAGRAMA);
+        bufferEnvio = ByteBuffer.allocateDirect(Protocolo.MAX_DATAGRAMA);
+    }
+
+    // -Dservidor.interfaz=nombre, o la primera interfaz activa con multicast
+    static NetworkInterface interfazMulticast() throws Exception {
+        String nombre = System.getProperty("servidor.interfaz");
+        if (nombre != null) {
+            return NetworkInterface.getByName(nombre);
+        }
+        NetworkInterface loopback = null;
+        Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while (interfaces.hasMoreElements()) {
+            NetworkInterface ni = interfaces.nextElement();
+            if (!ni.isUp() || !ni.supportsMulticast()) continue;
+            if (ni.isLoopback()) {
+                loopback = ni;
+            } else {
+                return ni;
+            }
         }
+        return loopback;
     }
-    
-    private void listenForCommands() {
+
+    // Ruta caliente sin asignaciones: buffers reutilizados y despacho por opcode
+    private void escuchar() {
         try {
-            byte[] buffer = new byte[1024];
-            
             while (true) {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                serverSocket.receive(packet);
-                
-                Mensaje mensaje = Mensaje.fromBytes(Arrays.copyOf(packet.getData(), packet.getLength()));
-                if (mensaje != null) {
-                    procesarMensaje(mensaje, packet.getAddress(), packet.getPort());
+                Paquete p = libres != null ? libres.poll() : null;
+                ByteBuffer destino = p != null ? p.vista : bufferRecepcion;
+                destino.clear();
+                SocketAddress cliente = transporte.recibir(destino);
+                destino.flip();
+
+                if (p != null) {
+                    repartir(p, cliente);
+                } else if (trabajadores != null) {
+                    descartar();
                 } else {
-                    System.err.println("Mensaje no valido recibido");
+                    recibido(bufferRecepcion, cliente);
                 }
             }
         } catch (Exception e) {
-            System.err.println("Error recibiendo comandos: " + e.getMessage());
-        }
-    }
-    
-    private void procesarMensaje(Mensaje mensaje, InetAddress clientAddress, int clientPort) {
-        int seqNumber = mensaje.getSequenceNumber();
-        String comando = mensaje.getComando();
-        
-        System.out.println("Mensaje recibido: " + comando + " [Seq:" + seqNumber + "]");
-        
-        if (seqNumber == nextExpectedSeq) {
-            System.out.println("Secuencia esperada, procesando inmediatamente...");
-            procesarYResponderComando(comando, clientAddress, clientPort, seqNumber);
-            nextExpectedSeq++;
-            
-            procesarBufferComandos(clientAddress, clientPort);
-            
-        } else if (seqNumber > nextExpectedSeq) {
-            receivedCommands.put(seqNumber, comando);
-            System.out.println("Comando almacenado en buffer [Seq:" + seqNumber + "]");
-            System.out.println("Buffer size: " + receivedCommands.size());
-            
-            enviarACK(nextExpectedSeq - 1, "BUFFERED", clientAddress, clientPort);
-            
+            if (transporte.abierto()) {
+                REGISTRO.error("Error recibiendo comandos: " + e.getMessage());
+            }
+        }
+    }
+
+    // Modo sin trabajadores: el hilo receptor procesa el datagrama
+    void recibido(ByteBuffer datagrama, SocketAddress cliente) {
+        contarRecibido();
+        procesarDatagrama(local, datagrama, cliente, 0);
+    }
+
+    // Modo con trabajadores: el paquete va a la cola del trabajador de su sesion
+    private void repartir(Paquete p, SocketAddress cliente) {
+        contarRecibido();
+        p.direccion = cliente;
+        p.llegada = RelojMedios.ahora();
+        Trabajador t = trabajadores[(cliente.hashCode() & 0x7fffffff) % trabajadores.length];
+        if (!t.entrada.offer(p)) {
+            // Trabajador saturado: se descarta y el cliente lo reenviara
+            descartadosCola++;
+            liberar(p);
+        }
+    }
+
+    // Sin paquetes libres: los trabajadores van por detras
+    private void descartar() {
+        contarRecibido();
+        descartadosCola++;
+    }
+
+    private void contarRecibido() {
+        if (asignadosAlInicio == null) {
+            hiloReceptor = Thread.currentThread().getId();
+            asignadosAlInicio = asignadosPorEtapa();
+        }
+        paquetesRecibidos++;
+
+        if (REPORTE > 0 && paquetesRecibidos % REPORTE == 0) {
+            REGISTRO.info(resumenContadores());
+        }
+    }
+
+    // llegada: instante de recepcion en RelojMedios, o 0 si se procesa en el mismo hilo que recibe
+    private void procesarDatagrama(Trabajador t, ByteBuffer datagrama, SocketAddress cliente, long llegada) {
+        if (Protocolo.decodificar(datagrama, t.trama)) {
+            if (t.trama.getOpcode() == Protocolo.OP_RELOJ) {
+                responderReloj(t, t.trama, cliente, llegada);
+                return;
+            }
+            procesarMensaje(t, t.trama, cliente);
         } else {
-            System.out.println("Comando duplicado [Seq:" + seqNumber + "], reenviando ACK");
-            enviarACK(seqNumber, "DUPLICADO", clientAddress, clientPort);
-        }
-    }
-    
-    private void procesarBufferComandos(InetAddress clientAddress, int clientPort) {
-        while (receivedCommands.containsKey(nextExpectedSeq)) {
-            String comando = receivedCommands.remove(nextExpectedSeq);
-            System.out.println("Procesando comando del buffer [Seq:" + nextExpectedSeq + "]");
-            procesarYResponderComando(comando, clientAddress, clientPort, nextExpectedSeq);
-            nextExpectedSeq++;
-        }
-    }
-    
-    private void procesarYResponderComando(String comando, InetAddress clientAddress, int clientPort, int seqNumber) {
-        String respuesta = "";
-        
-        switch (comando.toUpperCase()) {
-            case "CONNECT":
-                respuesta = "Conectado - Servidor listo";
+            t.paquetesInvalidos++;
+            REGISTRO.aviso("Mensaje no valido recibido");
+        }
+    }
+
+    private void procesarMensaje(Trabajador t, Protocolo.Trama mensaje, SocketAddress cliente) {
+        boolean texto = (mensaje.getFlags() & Protocolo.FLAG_TEXTO) != 0;
+        if (mensaje.getSequenceNumber() != 0 && !sesiones.containsKey(cliente)) {
+            // Sesion expirada o nunca abierta: sin su estado no se sabe que seq toca,
+            // asi que no se abre una ventana en 0 a mitad de flujo
+            if (!texto) {
+                // El cliente reconecta con CONNECT
+                responderSinSesion(t, mensaje, cliente);
+                return;
+            }
+            // El formato de texto no puede pedir que reconecte y tomaria cualquier
+            // ACK como confirmacion: la sesion se reabre en la seq que llega
+            sesionDe(cliente).nextExpectedSeq = mensaje.getSequenceNumber();
+            t.sinSesion++;
+            REGISTRO.registrar(Registro.Nivel.INFO, "Sesion de texto reabierta: {} [Seq:{}]", cliente, mensaje.getSequenceNumber());
+        }
+        Sesion sesion = sesionDe(cliente);
+        sesion.texto = texto;
+        if (mensaje.getOpcode() == Protocolo.OP_LOTE) {
+            procesarLote(t, sesion, mensaje);
+        } else {
+            procesarComando(t, sesion, mensaje.getSequenceNumber(), mensaje.getOpcode(),
+                mensaje.getPayload(), 0, mensaje.getLongitud());
+        }
+    }
+
+    // Procesa cada entrada del lote y contesta con un solo ACK acumulativo
+    private void procesarLote(Trabajador t, Sesion sesion, Protocolo.Trama lote) {
+        byte[] p = lote.getPayload();
+        int fin = lote.getLongitud();
+        int entradas = 0;
+
+        ByteBuffer respuestasLote = t.respuestasLote;
+        t.enLote = true;
+        respuestasLote.clear();
+        int i = 0;
+        while (i + Protocolo.CABECERA_ENTRADA <= fin) {
+            int seq = Protocolo.entero(p, i);
+            byte opcode = p[i + 4];
+            int longitud = Protocolo.corto(p, i + 5);
+            i += Protocolo.CABECERA_ENTRADA;
+            if (i + longitud > fin) {
+                t.paquetesInvalidos++;
+                break;
+            }
+            procesarComando(t, sesion, seq, opcode, p, i, longitud);
+            i += longitud;
+            entradas++;
+        }
+        t.enLote = false;
+
+        REGISTRO.registrar(DEBUG, "Lote procesado: {} comandos [Seq:{}]", entradas, lote.getSequenceNumber());
+        enviarACK(t, sesion, sesion.nextExpectedSeq - 1, respuestasLote.array(), 0, respuestasLote.position(), true);
+    }
+
+    private void procesarComando(Trabajador t, Sesion sesion, int seqNumber, byte opcode, byte[] payload, int offset, int longitud) {
+        if (REGISTRO.depura()) {
+            REGISTRO.registrar(DEBUG, "Mensaje recibido: {} [Seq:{}]", comandoDe(opcode, payload, offset, longitud), seqNumber);
+        }
+
+        if (opcode == Protocolo.OP_CONNECT && seqNumber == 0) {
+            negociarVentana(sesion, payload, offset, longitud);
+        }
+
+        if (seqNumber == sesion.nextExpectedSeq) {
+            REGISTRO.registrar(DEBUG, "Secuencia esperada, procesando inmediatamente...");
+            procesarYResponderComando(t, opcode, opcode == Protocolo.OP_TEXTO ? texto(payload, offset, longitud) : null,
+                sesion, seqNumber);
+            sesion.nextExpectedSeq++;
+
+            procesarBufferComandos(t, sesion);
+
+        } else if (sesion.receivedCommands.dentro(seqNumber, sesion.nextExpectedSeq)) {
+            sesion.receivedCommands.guardar(seqNumber, opcode,
+                opcode == Protocolo.OP_TEXTO ? texto(payload, offset, longitud) : null);
+            profundidadReordenamiento.registrar(sesion.receivedCommands.ocupados());
+            REGISTRO.registrar(DEBUG, "Comando almacenado en buffer [Seq:{}]\nBuffer size: {}",
+                seqNumber, sesion.receivedCommands.ocupados());
+
+            enviarACK(t, sesion, sesion.nextExpectedSeq - 1, RESP_BUFFERED);
+
+        } else if (seqNumber > sesion.nextExpectedSeq) {
+            // Mas alla de la ventana negociada: se descarta y el cliente lo reenviara
+            t.fueraDeVentana++;
+            REGISTRO.registrar(DEBUG, "Comando fuera de ventana descartado [Seq:{}]", seqNumber);
+
+        } else {
+            duplicados.incrementar();
+            REGISTRO.registrar(DEBUG, "Comando duplicado [Seq:{}], reenviando ACK", seqNumber);
+            enviarACK(t, sesion, seqNumber, RESP_DUPLICADO);
+        }
+    }
+
+    // CONNECT con seq 0 abre la sesion: payload = ventana del cliente (short) + epoca (int)
+    // + mascara de codecs de audio que sabe decodificar (byte; sin ella, solo PCM)
+    private void negociarVentana(Sesion sesion, byte[] p, int offset, int longitud) {
+        int ventana = VENTANA_MAXIMA;
+        int epoca = 0;
+        if (longitud >= 2) {
+            int pedida = Protocolo.corto(p, offset);
+            if (pedida > 0) {
+                ventana = Math.min(pedida, VENTANA_MAXIMA);
+            }
+        }
+        if (longitud >= 6) {
+            epoca = Protocolo.entero(p, offset + 2);
+        }
+        int codecs = CodecAudio.mascara(CodecAudio.PCM16) | (longitud >= 7 ? p[offset + 6] & CodecAudio.TODOS : 0);
+        if (codecs != sesion.codecs) {
+            sesion.codecs = codecs;
+            negociarCodec();
+        }
+
+        if (sesion.nextExpectedSeq > 0) {
+            // Un CONNECT reenviado de la misma epoca es un duplicado normal
+            if (epoca == sesion.epoca) {
+                return;
+            }
+            // Un cliente que reinicia desde el mismo puerto vuelve a empezar en seq 0
+            sesion.nextExpectedSeq = 0;
+            sesion.receivedCommands.vaciar();
+        }
+        sesion.epoca = epoca;
+        if (ventana != sesion.receivedCommands.capacidad()) {
+            sesion.receivedCommands = new VentanaReordenamiento(ventana);
+        }
+        REGISTRO.registrar(DEBUG, "Ventana negociada con {}: {}", sesion.cliente, ventana);
+    }
+
+    private static String comandoDe(byte opcode, byte[] payload, int offset, int longitud) {
+        return opcode == Protocolo.OP_TEXTO ? texto(payload, offset, longitud) : Protocolo.nombre(opcode);
+    }
+
+    private static String texto(byte[] payload, int offset, int longitud) {
+        return new String(payload, offset, longitud, StandardCharsets.UTF_8);
+    }
+
+    private void procesarBufferComandos(Trabajador t, Sesion sesion) {
+        VentanaReordenamiento buffer = sesion.receivedCommands;
+        while (!buffer.vacia() && buffer.contiene(sesion.nextExpectedSeq)) {
+            int seq = sesion.nextExpectedSeq;
+            byte opcode = buffer.opcode(seq);
+            String texto = buffer.texto(seq);
+            buffer.liberar(seq);
+            REGISTRO.registrar(DEBUG, "Procesando comando del buffer [Seq:{}]", seq);
+            procesarYResponderComando(t, opcode, texto, sesion, seq);
+            sesion.nextExpectedSeq++;
+        }
+    }
+
+    private void procesarYResponderComando(Trabajador t, byte opcode, String texto, Sesion sesion, int seqNumber) {
+        byte[] respuesta;
+        comandosProcesados.incrementar();
+
+        switch (opcode) {
+            case Protocolo.OP_CONNECT:
+                respuesta = emisor != null
+                    ? utf8("Conectado - Servidor listo | codec: " + CodecAudio.nombre(emisor.getCodec()))
+                    : RESP_CONNECT;
                 break;
-            case "PLAY":
-                respuesta = "Comando PLAY recibido y procesado";
+            case Protocolo.OP_PLAY:
+                respuesta = emisor != null ? conInicio(RESP_PLAY, emisor.reproducir()) : RESP_PLAY;
                 break;
-            case "PAUSE":
-                respuesta = "Comando PAUSE recibido y procesado";
+            case Protocolo.OP_PAUSE:
+                if (emisor != null) emisor.pausar();
+                respuesta = RESP_PAUSE;
                 break;
-            case "STOP":
-                respuesta = "Comando STOP recibido y procesado";
+            case Protocolo.OP_STOP:
+                if (emisor != null) emisor.detener();
+                respuesta = RESP_STOP;
                 break;
-            case "RESTART":
-                respuesta = "Comando RESTART recibido y procesado";
+            case Protocolo.OP_RESTART:
+                respuesta = emisor != null ? conInicio(RESP_RESTART, emisor.reiniciar()) : RESP_RESTART;
                 break;
-            case "STATUS":
-                respuesta = "Servidor funcionando - Esperando comandos";
+            case Protocolo.OP_STATUS:
+                respuesta = utf8("Servidor funcionando - Esperando comandos | " + resumenContadores()
+                    + (emisor != null ? " | " + emisor.resumen() : ""));
                 break;
             default:
-                respuesta = "Comando no reconocido: " + comando;
+                respuesta = utf8("Comando no reconocido: " + (texto != null ? texto : Protocolo.nombre(opcode)));
+        }
+
+        if (observador != null) {
+            observador.accept(sesion.cliente, seqNumber);
+        }
+        enviarACK(t, sesion, seqNumber, respuesta);
+        // respuesta es una constante o un arreglo recien creado: el escritor puede leerla despues
+        REGISTRO.registrar(DEBUG, "Procesado: {} [Seq:{}] -> {}",
+            texto != null ? texto : Protocolo.nombre(opcode), seqNumber, respuesta);
+    }
+
+    // Agrega a la respuesta el instante de presentacion del audio que empieza (0 = ninguno)
+    private static byte[] conInicio(byte[] respuesta, long inicio) {
+        if (inicio == 0) {
+            return respuesta;
+        }
+        return utf8(new String(respuesta, StandardCharsets.UTF_8) + " | inicio: " + inicio);
+    }
+
+    // En los ACK el campo seq anuncia la ventana de la sesion al cliente y el
+    // mapa SACK indica que comandos posteriores a ackNumber ya estan en el buffer
+    private void enviarACK(Trabajador t, Sesion sesion, int ackNumber, byte[] mensaje) {
+        if (t.enLote) {
+            ByteBuffer respuestasLote = t.respuestasLote;
+            // Cada respuesta va con la seq de su comando; las que no caben se omiten
+            if (mensaje != RESP_BUFFERED && mensaje != RESP_DUPLICADO) {
+                Protocolo.agregarRespuesta(respuestasLote, ackNumber, mensaje, 0, mensaje.length);
+            }
+            return;
         }
-        
-        enviarACK(seqNumber, respuesta, clientAddress, clientPort);
-        System.out.println("Procesado: " + comando + " [Seq:" + seqNumber + "] -> " + respuesta);
+        enviarACK(t, sesion, ackNumber, mensaje, 0, mensaje.length, false);
     }
-    
-    private void enviarACK(int ackNumber, String mensaje, InetAddress clientAddress, int clientPort) {
+
+    // lote: el payload son las respuestas de un lote (Protocolo.agregarRespuesta)
+    private void enviarACK(Trabajador t, Sesion sesion, int ackNumber, byte[] mensaje, int offset, int longitud,
+                           boolean lote) {
+        SocketAddress cliente = sesion.cliente;
+        Paquete p = null;
+        if (salida != null && (p = reservar(t)) == null) {
+            return;
+        }
         try {
-            Mensaje ack = new Mensaje(0, ackNumber, "ACK:" + mensaje);
-            byte[] ackData = ack.toBytes();
-            DatagramPacket ackPacket = new DatagramPacket(ackData, ackData.length, clientAddress, clientPort);
-            serverSocket.send(ackPacket);
-            System.out.println("ACK enviado: " + ackNumber + " -> " + mensaje);
+            ByteBuffer destino = p != null ? p.vista : bufferEnvio;
+            destino.clear();
+            VentanaReordenamiento buffer = sesion.receivedCommands;
+            long sack = 0;
+            if (sesion.texto) {
+                // El formato anterior no tiene ventana ni SACK
+                Protocolo.codificarAckTexto(destino, ackNumber, mensaje, offset, Math.min(longitud, Protocolo.MAX_PAYLOAD));
+            } else {
+                sack = buffer.mapa(ackNumber + 1, sesion.nextExpectedSeq);
+                Protocolo.codificarAck(destino, buffer.capacidad(), ackNumber, sack, mensaje, offset,
+                    Math.min(longitud, Protocolo.MAX_PAYLOAD));
+                if (lote) {
+                    destino.put(3, (byte) (destino.get(3) | Protocolo.FLAG_LOTE));
+                }
+            }
+            despachar(t, p, destino, cliente);
+            if (REGISTRO.depura()) {
+                Object respuesta = lote ? "respuestas del lote (" + longitud + " bytes)"
+                    : offset == 0 && longitud == mensaje.length ? mensaje : texto(mensaje, offset, longitud);
+                REGISTRO.registrar(DEBUG, "ACK enviado: {} -> {}{}", ackNumber, respuesta,
+                    sack != 0 ? " [SACK:" + Long.toBinaryString(sack) + "]" : "");
+            }
         } catch (Exception e) {
-            System.err.println("Error enviando ACK: " + e.getMessage());
+            REGISTRO.error("Error enviando ACK: " + e.getMessage());
+        }
+    }
+
+    private void responderSinSesion(Trabajador t, Protocolo.Trama mensaje, SocketAddress cliente) {
+        t.sinSesion++;
+        REGISTRO.registrar(DEBUG, "Comando sin sesion de {} [Seq:{}], se pide reconectar", cliente, mensaje.getSequenceNumber());
+        Paquete p = null;
+        if (salida != null && (p = reservar(t)) == null) {
+            return;
+        }
+        try {
+            ByteBuffer destino = p != null ? p.vista : bufferEnvio;
+            destino.clear();
+            Protocolo.codificarSesionDesconocida(destino, mensaje.getSequenceNumber(), RESP_SIN_SESION, 0, RESP_SIN_SESION.length);
+            despachar(t, p, destino, cliente);
+        } catch (Exception e) {
+            REGISTRO.error("Error enviando ACK: " + e.getMessage());
+        }
+    }
+
+    // Intercambio de reloj fuera de la ventana: devuelve t1 con la llegada y la
+    // salida segun el reloj del servidor; no crea sesion ni consume secuencia,
+    // pero mantiene viva la sesion de un cliente que solo mide el reloj
+    private void responderReloj(Trabajador t, Protocolo.Trama mensaje, SocketAddress cliente, long llegada) {
+        if (mensaje.getLongitud() < 8) {
+            t.paquetesInvalidos++;
+            return;
+        }
+        Sesion sesion = sesiones.get(cliente);
+        if (sesion != null) {
+            sesion.ultimaActividad = System.currentTimeMillis();
+        }
+        if (llegada == 0) {
+            llegada = RelojMedios.ahora();
+        }
+        Paquete p = null;
+        if (salida != null && (p = reservar(t)) == null) {
+            return;
+        }
+        try {
+            ByteBuffer destino = p != null ? p.vista : bufferEnvio;
+            destino.clear();
+            Protocolo.codificarReloj(destino, Protocolo.largo(mensaje.getPayload(), 0), llegada, RelojMedios.ahora());
+            despachar(t, p, destino, cliente);
+        } catch (Exception e) {
+            REGISTRO.error("Error respondiendo al reloj: " + e.getMessage());
+        }
+    }
+
+    // Con etapas las respuestas se codifican en un paquete del pool y las envia el emisor
+    private Paquete reservar(Trabajador t) {
+        Paquete p = libres.poll();
+        if (p == null) {
+            t.respuestasDescartadas++;
+        }
+        return p;
+    }
+
+    private void despachar(Trabajador t, Paquete p, ByteBuffer destino, SocketAddress cliente) throws java.io.IOException {
+        if (p == null) {
+            enviarDatagrama(destino, cliente);
+            return;
+        }
+        p.direccion = cliente;
+        if (!salida.offer(p)) {
+            t.respuestasDescartadas++;
+            liberar(p);
         }
     }
-    
+
+    // Para comprobar el orden de ejecucion en los benchmarks
+    void setObservador(ObjIntConsumer<SocketAddress> observador) {
+        this.observador = observador;
+    }
+
+    // Envia un datagrama ya codificado (position = longitud)
+    private void enviarDatagrama(ByteBuffer datagrama, SocketAddress cliente) throws java.io.IOException {
+        if (transporte != null) {
+            datagrama.flip();
+            transporte.enviar(datagrama, cliente);
+        }
+    }
+
+    // Paquetes procesados y bytes asignados por las etapas desde el primer paquete
+    private String resumenContadores() {
+        long invalidos = sumar(t -> t.paquetesInvalidos);
+        long fuera = sumar(t -> t.fueraDeVentana);
+        long sinSesion = sumar(t -> t.sinSesion);
+        long sinRespuesta = sumar(t -> t.respuestasDescartadas);
+        long recibidos = paquetesRecibidos;
+        long[] inicio = asignadosAlInicio;
+        long[] etapas = asignadosPorEtapa();
+        for (int i = 0; i < etapas.length; i++) {
+            etapas[i] = inicio == null ? 0 : etapas[i] - inicio[i];
+        }
+        long asignados = etapas[0] + etapas[1] + etapas[2];
+        return "Sesiones: " + sesiones.size()
+            + ", paquetes: " + recibidos
+            + ", invalidos: " + invalidos
+            + ", fuera de ventana: " + fuera
+            + ", sin sesion: " + sinSesion
+            + (trabajadores != null ? ", descartados en cola: " + descartadosCola + ", ACK descartados: " + sinRespuesta : "")
+            + ", bytes asignados: " + asignados
+            + " (" + (recibidos == 0 ? 0 : asignados / recibidos) + " B/paquete"
+            + (trabajadores != null
+                ? "; recepcion: " + etapas[0] + ", trabajadores: " + etapas[1] + ", emisor: " + etapas[2] : "")
+            + ")"
+            + ", " + profundidadReordenamiento.resumen();
+    }
+
+    // Suma un contador de todos los hilos que ejecutan comandos
+    private long sumar(ToLongFunction<Trabajador> contador) {
+        long total = contador.applyAsLong(local);
+        if (trabajadores != null) {
+            for (Trabajador t : trabajadores) {
+                total += contador.applyAsLong(t);
+            }
+        }
+        return total;
+    }
+
+    // Sin trabajadores todo ocurre en el hilo receptor y las otras etapas quedan en 0
+    private long[] asignadosPorEtapa() {
+        long trabajo = 0;
+        for (long hilo : hilosTrabajadores) {
+            trabajo += bytesAsignados(hilo);
+        }
+        return new long[] { bytesAsignados(hiloReceptor), trabajo, bytesAsignados(hiloEmisor) };
+    }
+
+    private static long bytesAsignados(long hilo) {
+        if (hilo <= 0) {
+            return 0;
+        }
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            return Math.max(0, ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(hilo));
+        }
+        return 0;
+    }
+
+    private static byte[] utf8(String texto) {
+        return texto.getBytes(StandardCharsets.UTF_8);
+    }
+
     public static void main(String[] args) {
         new Servidor();
     }
-}
\ No newline at end of file
+}
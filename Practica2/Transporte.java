@@ -0,0 +1,96 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Lo que Servidor y Cliente necesitan de la red: enviar y recibir datagramas.
+ *
+ * La interfaz sigue a DatagramChannel: recibir copia el datagrama desde la
+ * posicion del buffer y devuelve el remitente; enviar manda lo que hay entre
+ * position y limit. Hay implementaciones sobre DatagramSocket (tambien
+ * MulticastSocket), sobre DatagramChannel y en memoria (EnlaceEmulado) para
+ * probar el protocolo con perdida, retardo, duplicados y desorden
+ * reproducibles. Un hilo puede recibir mientras otro envia.
+ */
+public interface Transporte extends Closeable {
+
+    /** Bloquea hasta el siguiente datagrama; lanza IOException si se cierra. */
+    SocketAddress recibir(ByteBuffer destino) throws IOException;
+
+    void enviar(ByteBuffer datagrama, SocketAddress destino) throws IOException;
+
+    boolean abierto();
+
+    @Override
+    void close();
+
+    /** Sobre un DatagramSocket; los buffers deben tener arreglo (no directos). */
+    static Transporte de(DatagramSocket socket) {
+        return new Transporte() {
+            private final DatagramPacket entrante = new DatagramPacket(new byte[0], 0);
+            private final DatagramPacket saliente = new DatagramPacket(new byte[0], 0);
+
+            @Override
+            public SocketAddress recibir(ByteBuffer destino) throws IOException {
+                entrante.setData(destino.array(), destino.arrayOffset() + destino.position(), destino.remaining());
+                socket.receive(entrante);
+                destino.position(destino.position() + entrante.getLength());
+                return entrante.getSocketAddress();
+            }
+
+            @Override
+            public void enviar(ByteBuffer datagrama, SocketAddress destino) throws IOException {
+                synchronized (saliente) {
+                    saliente.setData(datagrama.array(), datagrama.arrayOffset() + datagrama.position(),
+                        datagrama.remaining());
+                    saliente.setSocketAddress(destino);
+                    socket.send(saliente);
+                }
+                datagrama.position(datagrama.limit());
+            }
+
+            @Override
+            public boolean abierto() {
+                return !socket.isClosed();
+            }
+
+            @Override
+            public void close() {
+                socket.close();
+            }
+        };
+    }
+
+    /** Sobre un DatagramChannel en modo bloqueante. */
+    static Transporte de(DatagramChannel canal) {
+        return new Transporte() {
+            @Override
+            public SocketAddress recibir(ByteBuffer destino) throws IOException {
+                return canal.receive(destino);
+            }
+
+            @Override
+            public void enviar(ByteBuffer datagrama, SocketAddress destino) throws IOException {
+                canal.send(datagrama, destino);
+            }
+
+            @Override
+            public boolean abierto() {
+                return canal.isOpen();
+            }
+
+            @Override
+            public void close() {
+                try {
+                    canal.close();
+                } catch (IOException e) {
+                    // Ya no se puede hacer nada con el canal
+                }
+            }
+        };
+    }
+}
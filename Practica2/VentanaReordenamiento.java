@@ -0,0 +1,107 @@
+/**
+ * Buffer circular de comandos recibidos fuera de orden.
+ *
+ * Cada secuencia ocupa la ranura seq % capacidad y un mapa de bits indica
+ * que ranuras estan ocupadas. El llamador garantiza que solo se guardan
+ * secuencias dentro de [esperada, esperada + capacidad), por lo que dos
+ * secuencias vivas nunca comparten ranura.
+ */
+public final class VentanaReordenamiento {
+    private final int capacidad;
+    private final byte[] opcodes;
+    private final String[] textos;   // solo para OP_TEXTO
+    private final long[] presentes;
+    private int ocupados = 0;
+
+    public VentanaReordenamiento(int capacidad) {
+        if (capacidad <= 0) {
+            throw new IllegalArgumentException("Capacidad invalida: " + capacidad);
+        }
+        this.capacidad = capacidad;
+        this.opcodes = new byte[capacidad];
+        this.textos = new String[capacidad];
+        this.presentes = new long[(capacidad + 63) >>> 6];
+    }
+
+    public int capacidad() { return capacidad; }
+    public int ocupados() { return ocupados; }
+    public boolean vacia() { return ocupados == 0; }
+
+    // true si seq cae dentro de la ventana que empieza en esperada
+    public boolean dentro(int seq, int esperada) {
+        int distancia = seq - esperada;
+        return distancia >= 0 && distancia < capacidad;
+    }
+
+    // Devuelve false si la secuencia ya estaba guardada
+    public boolean guardar(int seq, byte opcode, String texto) {
+        int ranura = ranura(seq);
+        long bit = 1L << (ranura & 63);
+        if ((presentes[ranura >>> 6] & bit) != 0) {
+            return false;
+        }
+        presentes[ranura >>> 6] |= bit;
+        opcodes[ranura] = opcode;
+        textos[ranura] = texto;
+        ocupados++;
+        return true;
+    }
+
+    public boolean contiene(int seq) {
+        int ranura = ranura(seq);
+        return (presentes[ranura >>> 6] & (1L << (ranura & 63))) != 0;
+    }
+
+    public byte opcode(int seq) {
+        return opcodes[ranura(seq)];
+    }
+
+    public String texto(int seq) {
+        return textos[ranura(seq)];
+    }
+
+    public void liberar(int seq) {
+        int ranura = ranura(seq);
+        long bit = 1L << (ranura & 63);
+        if ((presentes[ranura >>> 6] & bit) != 0) {
+            presentes[ranura >>> 6] &= ~bit;
+            textos[ranura] = null;
+            ocupados--;
+        }
+    }
+
+    /**
+     * Mapa SACK: el bit i vale 1 si la secuencia desde + i esta guardada.
+     * Solo se consideran secuencias dentro de la ventana que empieza en esperada.
+     */
+    public long mapa(int desde, int esperada) {
+        if (ocupados == 0) {
+            return 0;
+        }
+        long mapa = 0;
+        for (int i = 0; i < 64; i++) {
+            int seq = desde + i;
+            if (seq - esperada >= capacidad) {
+                break;
+            }
+            if (dentro(seq, esperada) && contiene(seq)) {
+                mapa |= 1L << i;
+            }
+        }
+        return mapa;
+    }
+
+    public void vaciar() {
+        for (int i = 0; i < presentes.length; i++) {
+            presentes[i] = 0;
+        }
+        for (int i = 0; i < capacidad; i++) {
+            textos[i] = null;
+        }
+        ocupados = 0;
+    }
+
+    private int ranura(int seq) {
+        return Integer.remainderUnsigned(seq, capacidad);
+    }
+}
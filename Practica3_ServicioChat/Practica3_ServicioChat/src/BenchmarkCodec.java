@@ -0,0 +1,144 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compara CodecMensaje con la serializacion de Java que usaba el chat.
+ *
+ * Uso: java [-Dbench.*] BenchmarkCodec
+ *
+ * Para cada tipo de mensaje (texto publico, saludo, confirmacion y fragmento
+ * de archivo de 4000 bytes) muestra el tamaño del datagrama y el tiempo de
+ * codificar y decodificar con cada formato. Antes de medir comprueba que el
+ * codec devuelve un mensaje igual al original.
+ *
+ * Propiedades: bench.calentamiento, bench.iteraciones, bench.duracion (ms).
+ * Sin JMH: iteraciones de calentamiento, iteraciones medidas y un sumidero
+ * para que el JIT no elimine el trabajo.
+ */
+public class BenchmarkCodec {
+    private static final int CALENTAMIENTO = Integer.getInteger("bench.calentamiento", 3);
+    private static final int ITERACIONES = Integer.getInteger("bench.iteraciones", 5);
+    private static final long DURACION_MS = Long.getLong("bench.duracion", 1000);
+
+    // Sumidero: evita que el JIT descarte resultados no usados
+    private static volatile long sumidero;
+
+    interface Operacion {
+        long ejecutar() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Mensaje texto = new Mensaje("<html>Hola a todos, ¿alguien tiene los apuntes de redes?</html>",
+            "Rigel", "", 1, "Sala 1");
+        Mensaje saludo = new Mensaje("<html><b>[Rigel] se ha conectado</b></html>", "Rigel", "", 0, "Sala 1");
+        Mensaje confirmacion = new Mensaje("<html></html>", "Luis", "Rigel", 3, "Sala 1");
+        Mensaje fragmento = new Mensaje("Pruebas admon.docx", "Rigel", "", 2, 1_250_000, "", 17, "Sala 1");
+        byte[] datos = new byte[4000];
+        new java.util.Random(42).nextBytes(datos);
+        fragmento.setDatos(datos);
+        fragmento.setBytesEnviados(datos.length);
+        fragmento.setTransferencia(0x5DEECE66DL);
+
+        comparar("texto", texto);
+        comparar("saludo", saludo);
+        comparar("confirmacion", confirmacion);
+        comparar("fragmento", fragmento);
+    }
+
+    private static void comparar(String nombre, final Mensaje m) throws Exception {
+        final byte[] binario = CodecMensaje.codificar(m);
+        final byte[] serializado = serializar(m);
+        verificar(nombre, m, CodecMensaje.decodificar(binario, 0, binario.length));
+
+        System.out.printf("== %s: %d bytes binario, %d bytes serializado (%.1fx) ==%n",
+            nombre, binario.length, serializado.length, (double) serializado.length / binario.length);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(CodecMensaje.MAX_DATAGRAMA);
+        medir(nombre + ".binario.codificar", () -> {
+            buffer.clear();
+            CodecMensaje.codificar(m, buffer);
+            return buffer.position();
+        });
+        medir(nombre + ".serializado.codificar", () -> serializar(m).length);
+        medir(nombre + ".binario.decodificar", () -> CodecMensaje.decodificar(binario, 0, binario.length).getTipo());
+        medir(nombre + ".serializado.decodificar", () -> {
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serializado))) {
+                return ((Mensaje) ois.readObject()).getTipo();
+            }
+        });
+    }
+
+    // Lo mismo que hacia EnviaMensajes antes del codec
+    private static byte[] serializar(Mensaje m) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(m);
+        oos.flush();
+        return baos.toByteArray();
+    }
+
+    private static void verificar(String nombre, Mensaje a, Mensaje b) {
+        boolean igual = b != null
+            && a.getTipo() == b.getTipo()
+            && igual(a.getMensaje(), b.getMensaje())
+            && igual(a.getUsuarioOrigen(), b.getUsuarioOrigen())
+            && igual(a.getUsuarioDestino(), b.getUsuarioDestino())
+            && igual(a.getSala(), b.getSala())
+            && igual(a.getNombre(), b.getNombre())
+            && a.getTamanio() == b.getTamanio()
+            && igual(a.ruta(), b.ruta())
+            && a.getNp() == b.getNp()
+            && Arrays.equals(a.getDatos(), b.getDatos())
+            && a.getBytesEnviados() == b.getBytesEnviados()
+            && a.getTransferencia() == b.getTransferencia();
+        if (!igual) {
+            throw new IllegalStateException("El codec no reproduce el mensaje: " + nombre);
+        }
+    }
+
+    private static boolean igual(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static void medir(String nombre, Operacion op) throws Exception {
+        for (int i = 0; i < CALENTAMIENTO; i++) {
+            iteracion(op);
+        }
+        double[] resultados = new double[ITERACIONES];
+        for (int i = 0; i < ITERACIONES; i++) {
+            resultados[i] = iteracion(op);
+        }
+
+        double media = 0;
+        for (double r : resultados) media += r;
+        media /= resultados.length;
+        double varianza = 0;
+        for (double r : resultados) varianza += (r - media) * (r - media);
+        double desviacion = resultados.length > 1 ? Math.sqrt(varianza / (resultados.length - 1)) : 0;
+
+        System.out.printf("%-36s %10.1f ± %6.1f ns/op  (%,.0f ops/s)%n", nombre, media, desviacion, 1e9 / media);
+    }
+
+    // Devuelve ns/op de una iteracion de DURACION_MS
+    private static double iteracion(Operacion op) throws Exception {
+        long operaciones = 0;
+        long acumulado = 0;
+        long inicio = System.nanoTime();
+        long limite = inicio + DURACION_MS * 1_000_000L;
+        long ahora;
+        do {
+            for (int i = 0; i < 256; i++) {
+                acumulado += op.ejecutar();
+            }
+            operaciones += 256;
+            ahora = System.nanoTime();
+        } while (ahora < limite);
+        sumidero += acumulado;
+        return (double) (ahora - inicio) / operaciones;
+    }
+}
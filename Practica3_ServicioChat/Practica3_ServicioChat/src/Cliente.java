@@ -3,7 +3,14 @@ import java.io.*;
 import javax.swing.*;
 import javax.swing.text.html.HTMLEditorKit;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
 import java.util.regex.*;
 
 public class Cliente {
@@ -21,6 +28,7 @@ public class Cliente {
             cliente = new MulticastSocket(puerto);      // Socket multicast
             grupo = InetAddress.getByName(host);            // Grupo multicast
             cliente.joinGroup(grupo);               // Se une al grupo
+            cliente.setReceiveBufferSize(1 << 20);  // Margen para las rafagas de fragmentos
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -30,6 +38,11 @@ public class Cliente {
         escucha = new Thread(hiloEscucha);
         escucha.start();
 
+        // Un solo hilo envia todo, en el orden en que se encola
+        envio = new Thread(new EnviaMensajes(), "chat-envio");
+        envio.setDaemon(true);
+        envio.start();
+
         carpeta(); // Crea carpetas necesarias para archivos
     }
 
@@ -39,65 +52,84 @@ public class Cliente {
             System.out.println("Escuchando Mensajes");
 
             try {
-                DatagramPacket recibido = new DatagramPacket(new byte[6500], 6500);
+                byte[] buffer = new byte[CodecMensaje.MAX_DATAGRAMA];
+                DatagramPacket recibido = new DatagramPacket(buffer, buffer.length);
 
                 while (true) {
+                    recibido.setLength(buffer.length);
                     cliente.receive(recibido);
-                    ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(recibido.getData()));
-                    Mensaje msj = (Mensaje) ois.readObject();
-
-                    // ✳️ Filtra mensajes de otras salas
-                    if (!sala.equals(msj.getSala())) {
-                        continue;
-                    }
-
-                    switch (msj.getTipo()) {
-                        case 0: // Saludo de nuevo usuario
-                            if (!msj.getUsuarioOrigen().equals(nombre)) {
-                                mostrar(msj.getMensaje());
-                                usuarioConectado.addItem(msj.getUsuarioOrigen());
-
-                                Mensaje respuesta = new Mensaje("", nombre, msj.getUsuarioOrigen(), 3, sala);
-                                enviar(respuesta);
-                            }
-                            break;
-                        case 1: // Mensaje público
-                            mostrar(msj.getMensaje());
-                            break;
-                        case 2: // Archivo
-                            if (!msj.getUsuarioOrigen().equals(nombre)) {
-                                recibirArchivo(msj);
-                            }
-                            break;
-                        case 3: // Confirmación de usuario
-                            if (!msj.getUsuarioOrigen().equals(nombre) && msj.getUsuarioDestino().equals(nombre)) {
-                                usuarioConectado.addItem(msj.getUsuarioOrigen());
-                            }
-                            break;
-                        case 4: // Mensaje privado
-                            if (msj.getUsuarioDestino().equals(nombre)) {
-                                mostrar(msj.getMensaje());
-                            }
-                            break;
-                        case 5: // Mensaje de salida
-                            mostrar(msj.getMensaje());
-                            
-                            // Elimina el usuario de la lista de usuarios conectados
-                            SwingUtilities.invokeLater(new Runnable() {
-                                public void run() {
-                                    usuarioConectado.removeItem(msj.getUsuarioOrigen());
-                                }
-                            });
-                            break;
+                    try {
+                        Mensaje msj = CodecMensaje.decodificar(buffer, 0, recibido.getLength());
+                        if (msj != null) {      // null: no es del chat, es de otra version o le faltan campos
+                            atender(msj);
+                        }
+                    } catch (RuntimeException e) {
+                        // Un datagrama que no se pudo atender no debe parar la escucha
+                        e.printStackTrace();
                     }
-
-                    ois.close();
                 }
 
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
+
+        private void atender(Mensaje msj) {
+            // ✳️ Filtra mensajes de otras salas
+            if (!sala.equals(msj.getSala())) {
+                return;
+            }
+
+            switch (msj.getTipo()) {
+                case 0: // Saludo de nuevo usuario
+                    if (!msj.getUsuarioOrigen().equals(nombre)) {
+                        mostrar(msj.getMensaje());
+                        usuarioConectado.addItem(msj.getUsuarioOrigen());
+
+                        Mensaje respuesta = new Mensaje("", nombre, msj.getUsuarioOrigen(), 3, sala);
+                        enviar(respuesta);
+                    }
+                    break;
+                case 1: // Mensaje público
+                    mostrar(msj.getMensaje());
+                    break;
+                case 2: // Archivo: el disco se atiende en otro hilo para no frenar la escucha
+                    if (!msj.getUsuarioOrigen().equals(nombre)) {
+                        archivos.execute(() -> recibirArchivo(msj));
+                    }
+                    break;
+                case 3: // Confirmación de usuario
+                    if (!msj.getUsuarioOrigen().equals(nombre) && msj.getUsuarioDestino().equals(nombre)) {
+                        usuarioConectado.addItem(msj.getUsuarioOrigen());
+                    }
+                    break;
+                case 4: // Mensaje privado
+                    if (msj.getUsuarioDestino().equals(nombre)) {
+                        mostrar(msj.getMensaje());
+                    }
+                    break;
+                case 6: // NACK de archivo: al emisor le toca reparar, a los demas suprimir el suyo
+                    if (msj.getUsuarioDestino().equals(nombre)) {
+                        EnvioArchivos envioArchivo = enviosActivos.get(msj.getTransferencia());
+                        if (envioArchivo != null) {
+                            envioArchivo.nacks.offer(msj);
+                        }
+                    } else if (!msj.getUsuarioOrigen().equals(nombre)) {
+                        archivos.execute(() -> oirNack(msj));
+                    }
+                    break;
+                case 5: // Mensaje de salida
+                    mostrar(msj.getMensaje());
+                    
+                    // Elimina el usuario de la lista de usuarios conectados
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            usuarioConectado.removeItem(msj.getUsuarioOrigen());
+                        }
+                    });
+                    break;
+            }
+        }
     }
 
     // Muestra contenido HTML en el editor
@@ -111,35 +143,53 @@ public class Cliente {
         }
     }
 
-    // Reemplazando emojis antes de enviar
+    // Reemplazando emojis antes de enviar; solo encola, no bloquea a quien llama
     public void enviar(Mensaje msj) {
         reemplazarEmojis(msj);
-        new Thread(new EnviaMensajes(msj)).start();
+        encolar(msj);
     }
 
-    // Clase interna para enviar mensajes
-    private class EnviaMensajes implements Runnable {
-        private Mensaje msj;
-
-        private EnviaMensajes(Mensaje msj) {
-            this.msj = msj;
+    // Chat y control van por su propia cola: los fragmentos de archivo no los retrasan ni los tiran
+    private void encolar(Mensaje msj) {
+        if (colaEnvio.offer(msj)) {
+            pendientesEnvio.release();
+        } else {
+            System.err.println("Cola de envio llena, se descarta un mensaje de tipo " + msj.getTipo());
         }
+    }
+
+    // Clase interna que envia los mensajes de las colas con un solo buffer y un solo paquete;
+    // los fragmentos de archivo solo salen cuando no queda chat ni control pendiente
+    private class EnviaMensajes implements Runnable {
+        private final ByteBuffer buffer = ByteBuffer.allocate(CodecMensaje.MAX_DATAGRAMA);
+        private final DatagramPacket paquete = new DatagramPacket(buffer.array(), 0);
 
         public void run() {
-            try {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                ObjectOutputStream oos = new ObjectOutputStream(baos);
-                oos.writeObject(msj);
-                oos.flush();
-                byte[] msjBytes = baos.toByteArray();
-
-                DatagramPacket p = new DatagramPacket(msjBytes, msjBytes.length, grupo, puerto);
-                cliente.send(p);
-
-                oos.close();
-                baos.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            paquete.setAddress(grupo);
+            paquete.setPort(puerto);
+            while (true) {
+                Mensaje msj;
+                try {
+                    pendientesEnvio.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                msj = colaEnvio.poll();
+                if (msj == null) {
+                    msj = colaArchivos.poll();
+                }
+                if (msj == FIN_ENVIO) {
+                    return;
+                }
+                try {
+                    buffer.clear();
+                    CodecMensaje.codificar(msj, buffer);
+                    paquete.setData(buffer.array(), 0, buffer.position());
+                    cliente.send(paquete);
+                } catch (Exception e) {
+                    // Un mensaje que no cabe o un error de red no detiene al hilo
+                    e.printStackTrace();
+                }
             }
         }
     }
@@ -225,10 +275,14 @@ public class Cliente {
     }
 
 
-    // Clase que gestiona el envío de archivos fragmentados
+    // Clase que gestiona el envío de archivos fragmentados y su reparación
     private class EnvioArchivos implements Runnable {
         private File file;
         private String destinatario;
+        private final long transferencia = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+        private final BlockingQueue<Mensaje> nacks = new LinkedBlockingQueue<>(256);
+        private final Ritmo ritmo = new Ritmo(ANCHO_ARCHIVOS);
+        private long tamanio;
 
         public EnvioArchivos(File file, String destinatario) {
             this.file = file;
@@ -236,66 +290,189 @@ public class Cliente {
         }
 
         public void run() {
+            enviosActivos.put(transferencia, this);
             try {
-                DataInputStream dis = new DataInputStream(new FileInputStream(file));
-                long tamanio = dis.available();
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+                tamanio = file.length();
                 long enviado = 0;
-                int n = 0;
                 int i = 0;
 
                 while (enviado < tamanio) {
-                    Mensaje datos = new Mensaje(
-                        file.getName(), nombre, destinatario, 2, file.length(), "", ++i, sala
-                    );
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream(6400);
-                    ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(baos));
-                    oos.flush();
-
-                    byte[] b = new byte[4000];
-                    n = dis.read(b);
-                    byte[] b2 = new byte[n];
-                    System.arraycopy(b, 0, b2, 0, n);
-                    datos.setDatos(b2);
-                    datos.setBytesEnviados(n);
-
-                    oos.writeObject(datos);
-                    oos.flush();
-
-                    byte[] d = baos.toByteArray();
-                    DatagramPacket paqueteEnvio = new DatagramPacket(d, d.length, grupo, puerto);
-                    cliente.send(paqueteEnvio);
-
-                    Thread.sleep(500);
+                    int n = (int) Math.min(FRAGMENTO, tamanio - enviado);
+                    byte[] b = new byte[n];
+                    dis.readFully(b);
+                    enviarFragmento(++i, b);
                     enviado += n;
-                    oos.close();
-                    baos.close();
                 }
+                dis.close();
 
                 // Paquete final
-                byte[] bFinal = {0x02};
-                Mensaje paqueteFinal = new Mensaje(file.getName(), nombre, destinatario, 2, file.length(), "", 0, sala);
-                paqueteFinal.setDatos(bFinal);
+                enviarFragmento(0, new byte[] {0x02});
+                reparar();
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                enviosActivos.remove(transferencia);
+            }
+        }
 
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                ObjectOutputStream oos = new ObjectOutputStream(baos);
-                oos.writeObject(paqueteFinal);
-                oos.flush();
+        // np empieza en 1; np = 0 es el paquete final
+        private void enviarFragmento(int np, byte[] b) throws InterruptedException {
+            Mensaje datos = new Mensaje(file.getName(), nombre, destinatario, 2, tamanio, "", np, sala);
+            datos.setDatos(b);
+            datos.setBytesEnviados(np == 0 ? 0 : b.length);
+            datos.setTransferencia(transferencia);
+            ritmo.esperar(b.length);
+            colaArchivos.put(datos);
+            pendientesEnvio.release();
+        }
 
-                byte[] mnsj = baos.toByteArray();
-                DatagramPacket dp = new DatagramPacket(mnsj, mnsj.length, grupo, puerto);
-                cliente.send(dp);
+        // Atiende los NACK hasta que pasa ESPERA_REPARACION_MS sin ninguno. Los que llegan
+        // juntos se unen en una sola ronda: cada fragmento sale una vez para toda la sala.
+        // Cada ronda sale a la mitad de ritmo; si tras una nadie vuelve a pedir en
+        // RONDA_LIMPIA_MS llego entera y el ritmo se recupera
+        private void reparar() throws IOException, InterruptedException {
+            int total = fragmentos(tamanio);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                BitSet pedidos = new BitSet();
+                Mensaje nack = nacks.poll(ESPERA_REPARACION_MS, TimeUnit.MILLISECONDS);
+                while (nack != null || !pedidos.isEmpty()) {
+                    if (nack != null) {
+                        pedidos.or(CodecMensaje.decodificarFaltantes(nack.getDatos(), total));
+                    }
+                    long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(AGREGACION_MS);
+                    long espera;
+                    while ((espera = limite - System.nanoTime()) > 0
+                            && (nack = nacks.poll(espera, TimeUnit.NANOSECONDS)) != null) {
+                        pedidos.or(CodecMensaje.decodificarFaltantes(nack.getDatos(), total));
+                    }
 
-                oos.close();
-                baos.close();
-                dis.close();
-            } catch (Exception e) {
-                e.printStackTrace();
+                    // Hubo perdidas: las reparaciones salen mas despacio
+                    ritmo.reducir();
+                    System.out.println("Reparando " + file.getName() + ": " + pedidos.cardinality() + " fragmentos");
+                    for (int i = pedidos.nextSetBit(0); i >= 0; i = pedidos.nextSetBit(i + 1)) {
+                        byte[] b = new byte[(int) Math.min(FRAGMENTO, tamanio - (long) i * FRAGMENTO)];
+                        raf.seek((long) i * FRAGMENTO);
+                        raf.readFully(b);
+                        enviarFragmento(i + 1, b);
+                    }
+                    enviarFragmento(0, new byte[] {0x02});
+
+                    // Lo pedido mientras salia la ronda ya iba en ella, salvo lo que se suma aparte
+                    BitSet enviados = pedidos;
+                    pedidos = new BitSet();
+                    while ((nack = nacks.poll()) != null) {
+                        pedidos.or(CodecMensaje.decodificarFaltantes(nack.getDatos(), total));
+                    }
+                    pedidos.andNot(enviados);
+                    if (pedidos.isEmpty()) {
+                        nack = nacks.poll(RONDA_LIMPIA_MS, TimeUnit.MILLISECONDS);
+                        if (nack == null) {
+                            ritmo.recuperar();
+                            nack = nacks.poll(ESPERA_REPARACION_MS, TimeUnit.MILLISECONDS);
+                        }
+                    }
+                }
             }
         }
     }
 
+    // Ritmo constante de envio: cada byte tiene su turno y se permite adelantarse hasta
+    // RAFAGA bytes, sin acumular credito por el tiempo en que no se envio nada
+    private static final class Ritmo {
+        private final long nanosPorByteInicial;
+        private long nanosPorByte;
+        private long turno = Long.MIN_VALUE;
+
+        Ritmo(long bytesPorSegundo) {
+            nanosPorByteInicial = Math.max(1, 1_000_000_000L / bytesPorSegundo);
+            nanosPorByte = nanosPorByteInicial;
+        }
+
+        void esperar(int bytes) {
+            long ahora = System.nanoTime();
+            turno = Math.max(turno, ahora - RAFAGA * nanosPorByte);
+            long espera = turno - ahora;
+            if (espera > 0) {
+                LockSupport.parkNanos(espera);
+            }
+            turno += bytes * nanosPorByte;
+        }
 
-    // Recibe fragmentos de archivo y los reconstruye
+        void reducir() {
+            nanosPorByte = Math.min(nanosPorByte * 2, 1_000_000_000L / ANCHO_MINIMO);
+        }
+
+        // Deshace una reduccion, sin pasar del ritmo configurado
+        void recuperar() {
+            nanosPorByte = Math.max(nanosPorByte / 2, nanosPorByteInicial);
+        }
+    }
+
+    private static int fragmentos(long tamanio) {
+        return (int) ((tamanio + FRAGMENTO - 1) / FRAGMENTO);
+    }
+
+    // Archivo que se esta recibiendo; solo lo toca el hilo de archivos. Cada fragmento
+    // se escribe en su posicion en cuanto llega: en memoria solo queda el mapa de bits
+    private final class Recepcion {
+        private final String clave;
+        private final String origen;
+        private final String nombreArchivo;
+        private final long transferencia;
+        private final long tamanio;
+        private final int total;
+        private final BitSet recibidos = new BitSet();
+        private final BitSet pedidosPorOtros = new BitSet();    // oidos en NACK de otros en esta ronda
+        private final File carpeta;
+        private final File parcial;
+        private final FileChannel canal;
+        private int faltan;
+        private boolean finVisto = false;
+        private boolean avanzo = false;     // llego algo desde el ultimo NACK
+        private boolean enRonda = false;    // se pidio reparacion y aun no llega el paquete final de la ronda
+        private int intentos = 0;
+        private long ultimaActividad = System.nanoTime();
+        private ScheduledFuture<?> temporizador;
+
+        Recepcion(String clave, Mensaje primero) throws IOException {
+            this.clave = clave;
+            this.origen = primero.getUsuarioOrigen();
+            this.nombreArchivo = primero.getNombre();
+            this.transferencia = primero.getTransferencia();
+            this.tamanio = primero.getTamanio();
+            this.total = fragmentos(tamanio);
+            this.faltan = total;
+
+            //Ruta: Archivos Adjuntos/Usuario/Sala/
+            carpeta = new File("Archivos Adjuntos/" + nombre + "/" + sala);
+            if (!carpeta.exists()) {
+                carpeta.mkdirs(); // Crea carpetas si no existen
+            }
+            // Con el id de la transferencia dos envios del mismo nombre no comparten el parcial
+            parcial = new File(carpeta, new File(nombreArchivo).getName() + "." + Long.toHexString(transferencia) + ".parcial");
+            canal = FileChannel.open(parcial.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.SPARSE);
+            if (tamanio > 0) {
+                // Reserva el tamaño final sin ocupar disco: los huecos se llenan al llegar
+                canal.write(ByteBuffer.wrap(new byte[1]), tamanio - 1);
+            }
+        }
+
+        void escribir(int indice, byte[] datos) throws IOException {
+            ByteBuffer b = ByteBuffer.wrap(datos);
+            long posicion = (long) indice * FRAGMENTO;
+            while (b.hasRemaining()) {
+                posicion += canal.write(b, posicion);
+            }
+        }
+    }
+
+    private static String clave(String origen, long transferencia) {
+        return origen + "/" + transferencia;
+    }
+
+    // Recibe fragmentos de archivo en cualquier orden; al ver el paquete final pide lo que falte
     private void recibirArchivo(Mensaje datos) {
         try {
             // Validar destinatario: público o dirigido a mí
@@ -303,47 +480,139 @@ public class Cliente {
                 return; // Ignora si es privado y no es para mí
             }
 
-            System.out.println("Paquete recibido: " + datos.getNp());
+            String clave = clave(datos.getUsuarioOrigen(), datos.getTransferencia());
+            if (recepcionesTerminadas.containsKey(clave)) {
+                return; // Reparaciones que pidio otro receptor
+            }
+            Recepcion r = recepciones.get(clave);
+            if (r == null) {
+                r = new Recepcion(clave, datos);
+                recepciones.put(clave, r);
+                programarRevision(r, SILENCIO_MS);
+            }
+            r.ultimaActividad = System.nanoTime();
+
+            int np = datos.getNp();
+            if (np > 0 && np <= r.total && !r.recibidos.get(np - 1) && valido(r, np, datos.getDatos())) {
+                r.escribir(np - 1, datos.getDatos());
+                r.recibidos.set(np - 1);
+                r.faltan--;
+                r.avanzo = true;
+            } else if (np == 0) {
+                // Cada receptor espera un poco al azar: el primer NACK suprime los de los demas
+                r.finVisto = true;
+                r.enRonda = false;
+                programarRevision(r, ThreadLocalRandom.current().nextLong(NACK_MS + 1));
+            }
 
-            //Ruta: Archivos Adjuntos/Usuario/Sala/
-            File carpetaDestino = new File("Archivos Adjuntos/" + nombre + "/" + sala);
-            if (!carpetaDestino.exists()) {
-                carpetaDestino.mkdirs(); // Crea carpetas si no existen
+            if (r.faltan == 0) {
+                terminar(r);
             }
 
-            String nombreArchivo = datos.getNombre(); // nombre único por archivo
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-            if (datos.getNp() == 1) {
-                //Primer paquete: inicia lista de fragmentos
-                List<byte[]> nuevaLista = new ArrayList<>();
-                nuevaLista.add(datos.getDatos());
-                archivosEnProgreso.put(nombreArchivo, nuevaLista);
+    // Cada fragmento mide FRAGMENTO salvo el ultimo, que llega justo al tamaño del archivo
+    private static boolean valido(Recepcion r, int np, byte[] datos) {
+        long esperado = Math.min(FRAGMENTO, r.tamanio - (long) (np - 1) * FRAGMENTO);
+        return datos != null && datos.length == esperado;
+    }
 
-            } else if (datos.getNp() > 1) {
-                //Paquete intermedio: agrega al mapa
-                if (archivosEnProgreso.containsKey(nombreArchivo)) {
-                    archivosEnProgreso.get(nombreArchivo).add(datos.getDatos());
-                }
+    // NACK de otro receptor: lo que pidio ya no hace falta pedirlo en esta ronda
+    private void oirNack(Mensaje nack) {
+        Recepcion r = recepciones.get(clave(nack.getUsuarioDestino(), nack.getTransferencia()));
+        if (r != null) {
+            r.pedidosPorOtros.or(CodecMensaje.decodificarFaltantes(nack.getDatos(), r.total));
+        }
+    }
 
-            } else if (datos.getNp() == 0) {
-                //Último paquete: reconstruir archivo
-                List<byte[]> partes = archivosEnProgreso.get(nombreArchivo);
-                if (partes != null) {
-                    File archivoFinal = new File(carpetaDestino, nombreArchivo);
-                    try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(archivoFinal))) {
-                        for (byte[] fragmento : partes) {
-                            dos.write(fragmento);
-                        }
-                    }
+    private void programarRevision(Recepcion r, long ms) {
+        if (r.temporizador != null) {
+            r.temporizador.cancel(false);
+        }
+        r.temporizador = archivos.schedule(() -> revisar(r), ms, TimeUnit.MILLISECONDS);
+    }
 
-                    archivosEnProgreso.remove(nombreArchivo); // Limpia después de reconstruir
-                    mostrar("<b>Archivo recibido: " + nombreArchivo + "</b>");
-                }
-            }
+    // Pide por NACK los fragmentos que faltan y vuelve a revisar por si se pierde la reparacion
+    private void revisar(Recepcion r) {
+        if (recepciones.get(r.clave) != r) {
+            return;
+        }
+        long silencio = System.nanoTime() - r.ultimaActividad;
+        if (!r.finVisto && silencio < TimeUnit.MILLISECONDS.toNanos(SILENCIO_MS)) {
+            // El emisor sigue enviando
+            programarRevision(r, SILENCIO_MS);
+            return;
+        }
+        if (r.enRonda && silencio < TimeUnit.MILLISECONDS.toNanos(REINTENTO_MS)) {
+            // La reparacion sigue llegando a su ritmo: se pide de nuevo al ver su paquete
+            // final, o si deja de llegar (se perdio el NACK, la ronda o su final)
+            programarRevision(r, REINTENTO_MS);
+            return;
+        }
 
-            Thread.sleep(500); // Evita saturación
+        if (r.avanzo) {
+            r.intentos = 0;
+            r.avanzo = false;
+        }
+        if (++r.intentos > MAX_INTENTOS) {
+            recepciones.remove(r.clave);
+            cerrar(r);
+            r.parcial.delete();
+            mostrar("<b>No se pudo recibir el archivo: " + r.nombreArchivo + "</b>");
+            return;
+        }
 
-        } catch (Exception e) {
+        BitSet faltantes = new BitSet();
+        faltantes.set(0, r.total);
+        faltantes.andNot(r.recibidos);
+        faltantes.andNot(r.pedidosPorOtros);
+        r.pedidosPorOtros.clear();
+        if (!faltantes.isEmpty()) {
+            Mensaje nack = new Mensaje(r.nombreArchivo, nombre, r.origen, 6, r.tamanio, "", 0, sala);
+            nack.setDatos(CodecMensaje.codificarFaltantes(faltantes));
+            nack.setTransferencia(r.transferencia);
+            encolar(nack);
+        }
+        r.enRonda = true;
+        programarRevision(r, REINTENTO_MS + ThreadLocalRandom.current().nextLong(NACK_MS + 1));
+    }
+
+    private void terminar(Recepcion r) throws IOException {
+        if (r.temporizador != null) {
+            r.temporizador.cancel(false);
+        }
+        recepciones.remove(r.clave);
+        recepcionesTerminadas.put(r.clave, Boolean.TRUE);
+
+        r.canal.close();
+        File destino = mover(r.parcial, r.carpeta, new File(r.nombreArchivo).getName());
+        mostrar("<b>Archivo recibido: " + r.nombreArchivo
+            + (destino.getName().equals(r.nombreArchivo) ? "" : " (guardado como " + destino.getName() + ")") + "</b>");
+    }
+
+    // Si ya hay un archivo con ese nombre se usa "nombre (1).ext", "nombre (2).ext"...
+    private static File mover(File parcial, File carpeta, String nombreArchivo) throws IOException {
+        int punto = nombreArchivo.lastIndexOf('.');
+        String base = punto > 0 ? nombreArchivo.substring(0, punto) : nombreArchivo;
+        String extension = punto > 0 ? nombreArchivo.substring(punto) : "";
+        for (int i = 0; ; i++) {
+            File destino = new File(carpeta, i == 0 ? nombreArchivo : base + " (" + i + ")" + extension);
+            try {
+                Files.move(parcial.toPath(), destino.toPath());
+                return destino;
+            } catch (FileAlreadyExistsException e) {
+                // Ocupado: se prueba el siguiente
+            }
+        }
+    }
+
+    private static void cerrar(Recepcion r) {
+        try {
+            r.canal.close();
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
@@ -351,6 +620,11 @@ public class Cliente {
     // Finaliza la conexión y cierra el socket
     public void cerrarConexion() {
         try {
+            // Deja salir lo que ya esta en cola (la despedida) antes de cerrar
+            if (envio != null && colaEnvio.offer(FIN_ENVIO)) {
+                pendientesEnvio.release();
+                envio.join(1000);
+            }
             if (cliente != null && !cliente.isClosed()) {
                 cliente.leaveGroup(grupo);
                 cliente.close();
@@ -358,12 +632,43 @@ public class Cliente {
             if (escucha != null) {
                 escucha.interrupt();
             }
+            // Las recepciones a medias se quedan en su archivo .parcial
+            archivos.execute(() -> {
+                for (Recepcion r : recepciones.values()) {
+                    cerrar(r);
+                }
+                recepciones.clear();
+            });
+            archivos.shutdown();
             System.out.println("Cliente desconectado correctamente");
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    // Mensajes esperando al hilo de envio en cada cola; los fragmentos de archivo esperan si se llena la suya
+    private static final int COLA_ENVIO = 1024;
+    private static final Mensaje FIN_ENVIO = new Mensaje("", "", "", -1, "");
+
+    // -Dchat.archivo.ancho=bytes/s ritmo de envio de archivos; el multicast no tiene
+    // control de congestion, asi que se limita para no desbordar a los receptores
+    private static final long ANCHO_ARCHIVOS = Long.getLong("chat.archivo.ancho", 4L << 20);
+    private static final int FRAGMENTO = 4000;
+    private static final long RAFAGA = 16 * FRAGMENTO;
+    private static final long ANCHO_MINIMO = 64 * 1024;
+
+    // Reparacion por NACK (tipo 6): los receptores esperan al azar hasta NACK_MS antes de
+    // pedir, el emisor junta los NACK de AGREGACION_MS y atiende hasta ESPERA_REPARACION_MS
+    // despues de la ultima peticion
+    private static final long NACK_MS = 50;
+    private static final long AGREGACION_MS = 30;
+    private static final long REINTENTO_MS = 500;
+    private static final long SILENCIO_MS = 2000;
+    // Lo que tarda en llegar el NACK de un receptor que perdio el final de la ronda
+    private static final long RONDA_LIMPIA_MS = REINTENTO_MS + 2 * NACK_MS;
+    private static final int MAX_INTENTOS = 20;
+    private static final long ESPERA_REPARACION_MS = Long.getLong("chat.archivo.reparacion", 30000);
+
     // Variables de instancia
     private String nombre;
     private String host;
@@ -371,11 +676,28 @@ public class Cliente {
     private String sala;
     private JEditorPane editor;
     private Thread escucha;
+    private Thread envio;
+    private final BlockingQueue<Mensaje> colaEnvio = new LinkedBlockingQueue<>(COLA_ENVIO);
+    private final BlockingQueue<Mensaje> colaArchivos = new LinkedBlockingQueue<>(COLA_ENVIO);
+    private final Semaphore pendientesEnvio = new Semaphore(0);     // mensajes en las dos colas
+    private final ScheduledExecutorService archivos = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "chat-archivos");
+        t.setDaemon(true);
+        return t;
+    });
     private Runnable hiloEscucha;
     private MulticastSocket cliente;
     private InetAddress grupo;
     private JComboBox<String> usuarioConectado;
-    private Map<String, List<byte[]>> archivosEnProgreso = new HashMap<>();
+    // Por id de transferencia: dos envios del mismo archivo no se pisan
+    private final Map<Long, EnvioArchivos> enviosActivos = new ConcurrentHashMap<>();
+    private final Map<String, Recepcion> recepciones = new HashMap<>();
+    // Ultimas transferencias completas, para ignorar las reparaciones que piden otros
+    private final Map<String, Boolean> recepcionesTerminadas = new LinkedHashMap<String, Boolean>(64, 0.75f, false) {
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> e) {
+            return size() > 64;
+        }
+    };
     private Pattern p;
     private Matcher m;
 }
\ No newline at end of file
@@ -0,0 +1,236 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+/**
+ * Codificacion binaria de Mensaje para los datagramas del chat.
+ *
+ * Sustituye a ObjectOutputStream, que repetia en cada paquete el descriptor de
+ * la clase y el nombre de cada atributo. Formato:
+ *
+ *   magia (1) version (1) tipo (1) campos...
+ *
+ * Cada campo es una etiqueta (numero de campo << 3 | tipo de valor) seguida de
+ * un entero variable (VARINT) o de una longitud variable y los bytes (BYTES),
+ * como en protobuf. Solo se escriben los campos presentes: un String null no
+ * aparece y uno vacio va con longitud 0, asi que el mensaje decodificado es
+ * igual al original. Los campos desconocidos se saltan, de modo que se pueden
+ * agregar campos sin romper a los clientes anteriores.
+ */
+public final class CodecMensaje {
+    public static final int MAX_DATAGRAMA = 6500;
+    private static final int MAX_FALTANTES = 4000;     // lo que ocupa un fragmento de archivo
+
+    private static final byte MAGIA = 0x4D;     // 'M'
+    private static final byte VERSION = 1;
+
+    private static final int VARINT = 0;
+    private static final int BYTES = 2;
+
+    // Numeros de campo
+    private static final int MENSAJE = 1;
+    private static final int ORIGEN = 2;
+    private static final int DESTINO = 3;
+    private static final int SALA = 4;
+    private static final int NOMBRE_ARCHIVO = 5;
+    private static final int TAMANIO = 6;
+    private static final int RUTA = 7;
+    private static final int NP = 8;
+    private static final int DATOS = 9;
+    private static final int BYTES_ENVIADOS = 10;
+    private static final int TRANSFERENCIA = 11;
+
+    private CodecMensaje() {}
+
+    // Codifica el mensaje desde la posicion actual; lanza BufferOverflowException si no cabe
+    public static void codificar(Mensaje m, ByteBuffer destino) {
+        destino.put(MAGIA).put(VERSION).put((byte) m.getTipo());
+        texto(destino, MENSAJE, m.getMensaje());
+        texto(destino, ORIGEN, m.getUsuarioOrigen());
+        texto(destino, DESTINO, m.getUsuarioDestino());
+        texto(destino, SALA, m.getSala());
+        texto(destino, NOMBRE_ARCHIVO, m.getNombre());
+        entero(destino, TAMANIO, m.getTamanio());
+        texto(destino, RUTA, m.ruta());
+        entero(destino, NP, m.getNp());
+        byte[] datos = m.getDatos();
+        if (datos != null) {
+            etiqueta(destino, DATOS, BYTES);
+            varint(destino, datos.length);
+            destino.put(datos);
+        }
+        entero(destino, BYTES_ENVIADOS, m.getBytesEnviados());
+        entero(destino, TRANSFERENCIA, m.getTransferencia());
+    }
+
+    public static byte[] codificar(Mensaje m) {
+        ByteBuffer destino = ByteBuffer.allocate(MAX_DATAGRAMA);
+        codificar(m, destino);
+        byte[] bytes = new byte[destino.position()];
+        System.arraycopy(destino.array(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    // Devuelve null si el datagrama no es un Mensaje valido o le faltan campos de su tipo
+    public static Mensaje decodificar(byte[] datos, int offset, int longitud) {
+        ByteBuffer origen = ByteBuffer.wrap(datos, offset, longitud);
+        try {
+            if (origen.remaining() < 3 || origen.get() != MAGIA || origen.get() != VERSION) {
+                return null;
+            }
+            int tipo = origen.get() & 0xFF;
+            Mensaje m = new Mensaje(null, null, null, tipo, null);
+            while (origen.hasRemaining()) {
+                int etiqueta = (int) varint(origen);
+                int campo = etiqueta >>> 3;
+                if ((etiqueta & 7) == VARINT) {
+                    long valor = varint(origen);
+                    switch (campo) {
+                        case TAMANIO: m.setTamanio(valor); break;
+                        case NP: m.setNp((int) valor); break;
+                        case BYTES_ENVIADOS: m.setBytesEnviados((int) valor); break;
+                        case TRANSFERENCIA: m.setTransferencia(valor); break;
+                        default: break;     // Campo desconocido
+                    }
+                } else if ((etiqueta & 7) == BYTES) {
+                    int n = (int) varint(origen);
+                    if (n < 0 || n > origen.remaining()) {
+                        return null;
+                    }
+                    int inicio = origen.arrayOffset() + origen.position();
+                    switch (campo) {
+                        case MENSAJE: m.setMensaje(texto(datos, inicio, n)); break;
+                        case ORIGEN: m.setUsuarioOrigen(texto(datos, inicio, n)); break;
+                        case DESTINO: m.setUsuarioDestino(texto(datos, inicio, n)); break;
+                        case SALA: m.setSala(texto(datos, inicio, n)); break;
+                        case NOMBRE_ARCHIVO: m.setNombre(texto(datos, inicio, n)); break;
+                        case RUTA: m.setRuta(texto(datos, inicio, n)); break;
+                        case DATOS:
+                            byte[] copia = new byte[n];
+                            System.arraycopy(datos, inicio, copia, 0, n);
+                            m.setDatos(copia);
+                            break;
+                        default: break;
+                    }
+                    origen.position(origen.position() + n);
+                } else {
+                    return null;
+                }
+            }
+            return completo(m) ? m : null;
+        } catch (RuntimeException e) {
+            // Datagrama truncado o varint corrupto
+            return null;
+        }
+    }
+
+    // Campos que el receptor usa sin comprobar, segun el tipo
+    private static boolean completo(Mensaje m) {
+        if (m.getSala() == null || m.getUsuarioOrigen() == null) {
+            return false;
+        }
+        switch (m.getTipo()) {
+            case 0: case 1: case 5:         // saludo, publico, salida
+                return m.getMensaje() != null;
+            case 4:                         // privado
+                return m.getMensaje() != null && m.getUsuarioDestino() != null;
+            case 3:                         // confirmacion de usuario
+                return m.getUsuarioDestino() != null;
+            case 2: case 6:                 // fragmento y NACK de archivo
+                return m.getUsuarioDestino() != null && m.getNombre() != null;
+            default:
+                return true;                // tipo que esta version no atiende
+        }
+    }
+
+    /**
+     * Fragmentos pedidos en un NACK (tipo 6), como rangos (inicio, cantidad)
+     * en varint y relativos al final del rango anterior. Si no caben todos en
+     * un datagrama se piden los primeros; el resto se pedira en la siguiente
+     * ronda.
+     */
+    public static byte[] codificarFaltantes(BitSet faltantes) {
+        ByteBuffer destino = ByteBuffer.allocate(MAX_FALTANTES);
+        int anterior = 0;
+        for (int i = faltantes.nextSetBit(0); i >= 0 && destino.remaining() >= 10; ) {
+            int fin = faltantes.nextClearBit(i);
+            varint(destino, i - anterior);
+            varint(destino, fin - i);
+            anterior = fin;
+            i = faltantes.nextSetBit(fin);
+        }
+        byte[] bytes = new byte[destino.position()];
+        System.arraycopy(destino.array(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    // Devuelve los fragmentos pedidos, sin pasar de limite
+    public static BitSet decodificarFaltantes(byte[] datos, int limite) {
+        BitSet faltantes = new BitSet();
+        if (datos == null) {
+            return faltantes;
+        }
+        ByteBuffer origen = ByteBuffer.wrap(datos);
+        try {
+            long inicio = 0;
+            while (origen.hasRemaining()) {
+                inicio += varint(origen);
+                long fin = inicio + varint(origen);
+                if (inicio >= limite) {
+                    break;
+                }
+                faltantes.set((int) inicio, (int) Math.min(fin, limite));
+                inicio = fin;
+            }
+        } catch (RuntimeException e) {
+            // NACK truncado: vale lo que se pudo leer
+        }
+        return faltantes;
+    }
+
+    private static void texto(ByteBuffer destino, int campo, String valor) {
+        if (valor == null) {
+            return;
+        }
+        byte[] utf8 = valor.getBytes(StandardCharsets.UTF_8);
+        etiqueta(destino, campo, BYTES);
+        varint(destino, utf8.length);
+        destino.put(utf8);
+    }
+
+    private static String texto(byte[] datos, int offset, int longitud) {
+        return new String(datos, offset, longitud, StandardCharsets.UTF_8);
+    }
+
+    private static void entero(ByteBuffer destino, int campo, long valor) {
+        if (valor != 0) {
+            etiqueta(destino, campo, VARINT);
+            varint(destino, valor);
+        }
+    }
+
+    private static void etiqueta(ByteBuffer destino, int campo, int tipo) {
+        varint(destino, (campo << 3) | tipo);
+    }
+
+    // 7 bits por byte, el bit alto indica que sigue otro byte
+    private static void varint(ByteBuffer destino, long valor) {
+        while ((valor & ~0x7FL) != 0) {
+            destino.put((byte) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
+        }
+        destino.put((byte) valor);
+    }
+
+    private static long varint(ByteBuffer origen) {
+        long valor = 0;
+        for (int desplazamiento = 0; desplazamiento < 64; desplazamiento += 7) {
+            byte b = origen.get();
+            valor |= (long) (b & 0x7F) << desplazamiento;
+            if (b >= 0) {
+                return valor;
+            }
+        }
+        throw new IllegalArgumentException("Varint demasiado largo");
+    }
+}
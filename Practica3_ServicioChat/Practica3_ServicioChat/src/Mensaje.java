@@ -1,5 +1,6 @@
 import java.io.*;
 
+// Se envia con CodecMensaje; Serializable queda para comparar en BenchmarkCodec
 public class Mensaje implements Serializable {
     private static final long serialVersionUID = 3L;
 
@@ -45,9 +46,15 @@ public class Mensaje implements Serializable {
     public int getNp() { return np; }                       // Número de paquete
     public byte[] getDatos() { return datos; }              // Fragmento de datos
     public int getBytesEnviados() { return bytesEnviados; } // Tamaño del fragmento enviado
+    public long getTransferencia() { return transferencia; } // Identifica cada envío de archivo
 
     public void setDatos(byte[] datos) { this.datos = datos; }
     public void setBytesEnviados(int bytesEnviados) { this.bytesEnviados = bytesEnviados; }
+    public void setNombre(String nombreArchivo) { this.nombreArchivo = nombreArchivo; }
+    public void setTamanio(long tamanio) { this.tamanio = tamanio; }
+    public void setRuta(String ruta) { this.ruta = ruta; }
+    public void setNp(int np) { this.np = np; }
+    public void setTransferencia(long transferencia) { this.transferencia = transferencia; }
 
     // Atributos privados
     private String mensaje;
@@ -63,4 +70,5 @@ public class Mensaje implements Serializable {
     private int np;
     private byte[] datos;
     private int bytesEnviados;
+    private long transferencia;
 }
\ No newline at end of file